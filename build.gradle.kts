@@ -71,3 +71,40 @@ val compileKotlin: KotlinCompile by tasks
 compileKotlin.kotlinOptions {
     freeCompilerArgs = listOf("-XXLanguage:+InlineClasses", "-Xuse-experimental=kotlin.Experimental")
 }
+
+// MotionCurveBatchKernel has a Vector API version in src/main/java16, packed into the jar as a multi-release class.
+// Gradle runs on Java 11 here, so it is only built when a JDK of 16 or later is given, e.g.
+// -Pjdk16.home=/usr/lib/jvm/java-17-openjdk-amd64, and the jar carries the scalar kernel alone otherwise.
+val jdk16Home = findProperty("jdk16.home") as String?
+
+val java16: SourceSet by sourceSets.creating {
+    java.setSrcDirs(listOf("src/main/java16"))
+    compileClasspath += sourceSets["main"].output
+}
+
+tasks.named<JavaCompile>(java16.compileJavaTaskName) {
+    enabled = jdk16Home != null
+    sourceCompatibility = "16"
+    targetCompatibility = "16"
+    options.compilerArgs.addAll(listOf("--add-modules", "jdk.incubator.vector"))
+    options.isFork = true
+    options.forkOptions.javaHome = jdk16Home?.let { file(it) }
+}
+
+tasks.named<Jar>("jar") {
+    if (jdk16Home != null) {
+        into("META-INF/versions/16") { from(java16.output) }
+        manifest { attributes("Multi-Release" to "true") }
+    }
+}
+
+// gradle batchBenchmark, with -Pjdk16.home to time the Vector API kernel too
+tasks.register<JavaExec>("batchBenchmark") {
+    description = "Times MotionCurveBatch against evaluating every curve on its own."
+    classpath = java16.output + sourceSets["test"].runtimeClasspath  // the versioned kernel comes first
+    main = "org.team2471.frc.lib.motion_profiling.MotionCurveBatchBenchmark"
+    if (jdk16Home != null) {
+        executable = "$jdk16Home/bin/java"
+        jvmArgs("--add-modules", "jdk.incubator.vector")
+    }
+}
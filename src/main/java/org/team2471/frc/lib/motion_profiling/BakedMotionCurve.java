@@ -0,0 +1,209 @@
+package org.team2471.frc.lib.motion_profiling;
+
+/**
+ * A {@link MotionCurve} sampled onto a uniform time grid for constant time lookup.
+ * <p>
+ * Values and slopes are stored at every grid point and interpolated with a cubic Hermite between them, so a lookup is
+ * an index computation and a handful of multiplies, with no key search, slope method branching or x inversion.  The
+ * grid spacing is halved until every cell agrees with the source curve to within the requested error.  Cells around
+ * a key that still miss (a stepped key, for instance, which no spacing will fit) are marked to be evaluated exactly
+ * instead.  So are cells of weighted segments whose slope times the tolerance of their x inversion takes up too much
+ * of the error, since the source wanders by that much between any points it could be checked at.  Times outside the
+ * keys are also handed to the exact curve so extrapolation behaves as it does on the source.
+ * <p>
+ * Like {@link CompiledMotionCurve} this is an immutable snapshot that is safe to share between threads.
+ */
+public final class BakedMotionCurve {
+    static final int MAX_HALVINGS = 8;
+    static final int MAX_SAMPLES = 1 << 20;
+    static final int CHECKS_PER_CELL = 8;
+    static final double ERROR_MARGIN = 0.5;
+
+    private final CompiledMotionCurve m_exactCurve;
+    private final double m_startTime;
+    private final double m_endTime;
+    private final double m_dt;
+    private final double m_invDt;
+    private final double m_maxError;
+    private final int m_cellCount;
+    private final double[] m_values;
+    private final double[] m_derivatives;
+    private final boolean[] m_exactCells;  // null when every cell met the error bound
+    private final int m_exactCellCount;
+
+    BakedMotionCurve(MotionCurve motionCurve, double dt, double maxError) {
+        if (!(dt > 0))
+            throw new IllegalArgumentException("dt must be positive, got " + dt);
+        if (!(maxError > 0))
+            throw new IllegalArgumentException("maxError must be positive, got " + maxError);
+
+        m_exactCurve = motionCurve.compile();
+        m_maxError = maxError;
+        m_startTime = m_exactCurve.getHeadTime();
+        m_endTime = m_exactCurve.getLength();
+        MotionCurve.Cursor cursor = motionCurve.newCursor();
+        double span = m_endTime - m_startTime;
+
+        double bakedDt = dt;
+        int cellCount = 0;
+        double[] values = null;
+        double[] derivatives = null;
+        boolean[] badCells = null;
+        int badCellCount = Integer.MAX_VALUE;
+        for (int halvings = 0; halvings <= MAX_HALVINGS; halvings++, dt *= 0.5) {
+            int nextCellCount = Math.max((int) Math.ceil(span / dt - 1e-9), 1);
+            if (nextCellCount + 1 > MAX_SAMPLES && values != null)
+                break;
+
+            double[] nextValues = new double[nextCellCount + 1];
+            double[] nextDerivatives = new double[nextCellCount + 1];
+            cursor.sample(m_startTime, dt, nextCellCount + 1, nextValues, nextDerivatives);
+
+            boolean[] nextBadCells = new boolean[nextCellCount];
+            int nextBadCellCount = 0;
+            for (int i = 0; i < nextCellCount; i++) {
+                if (cellError(i, dt, nextValues, nextDerivatives) > maxError) {
+                    nextBadCells[i] = true;
+                    nextBadCellCount++;
+                }
+            }
+
+            // smooth stretches converge quickly as the grid gets finer, so when halving stops reducing the misses
+            // what is left is a step or a kink that no spacing will fit, and the coarser grid is kept
+            if (nextBadCellCount >= badCellCount)
+                break;
+
+            cellCount = nextCellCount;
+            values = nextValues;
+            derivatives = nextDerivatives;
+            badCells = nextBadCells;
+            badCellCount = nextBadCellCount;
+            bakedDt = dt;
+            if (badCellCount == 0)
+                break;
+        }
+
+        m_dt = bakedDt;
+        m_invDt = 1.0 / bakedDt;
+        m_cellCount = cellCount;
+        m_values = values;
+        m_derivatives = derivatives;
+        m_exactCells = badCellCount > 0 ? badCells : null;
+        m_exactCellCount = badCellCount;
+    }
+
+    // bound on the difference between the interpolated and exact values inside cell i.  It is checked at evenly spaced
+    // points and at any keys that fall inside the cell, and held to a tighter bound there to cover the peaks that fall
+    // between them.  Weighted segments only invert x to within a tolerance, so their exact values also wander from
+    // the smooth curve by up to the slope times it, which no number of checks can see, and that is added twice.
+    private double cellError(int cell, double dt, double[] values, double[] derivatives) {
+        double cellStart = m_startTime + cell * dt;
+        double error = 0;
+        for (int j = 1; j < CHECKS_PER_CELL; j++)
+            error = Math.max(error, pointError(cellStart + j * dt / CHECKS_PER_CELL, cellStart, dt, cell, values, derivatives));
+
+        int keyCount = m_exactCurve.getKeyCount();
+        for (int k = m_exactCurve.findKeyIndex(Math.min(cellStart, m_endTime)); k < keyCount; k++) {
+            double keyTime = m_exactCurve.getKeyTime(k);
+            if (keyTime >= cellStart + dt)
+                break;
+            if (keyTime > cellStart)
+                error = Math.max(error, pointError(keyTime, cellStart, dt, cell, values, derivatives));
+        }
+        return error / ERROR_MARGIN + 2 * inversionError(cellStart, dt);
+    }
+
+    private double inversionError(double cellStart, double dt) {
+        double cellEnd = Math.min(cellStart + dt, m_endTime);
+        int segmentCount = m_exactCurve.getKeyCount() - 1;
+        for (int k = m_exactCurve.findKeyIndex(Math.min(cellStart, m_endTime)); k < segmentCount; k++) {
+            if (m_exactCurve.getKeyTime(k) >= cellEnd)
+                break;
+            if (m_exactCurve.getSegmentType(k) == CompiledMotionCurve.SEGMENT_WEIGHTED)
+                return m_exactCurve.maxAbsDerivative(cellStart, cellEnd) * (MotionCurve.MAXFRAMEERROR / 30.0f);
+        }
+        return 0;
+    }
+
+    private double pointError(double time, double cellStart, double dt, int cell, double[] values, double[] derivatives) {
+        if (time > m_endTime)
+            return 0;
+        double u = (time - cellStart) / dt;
+        return Math.abs(hermite(values, derivatives, cell, u, dt) - m_exactCurve.getValue(time));
+    }
+
+    private static double hermite(double[] values, double[] derivatives, int cell, double u, double dt) {
+        double p0 = values[cell];
+        double p1 = values[cell + 1];
+        double m0 = derivatives[cell] * dt;
+        double m1 = derivatives[cell + 1] * dt;
+        double u2 = u * u;
+        double u3 = u2 * u;
+        return (2 * u3 - 3 * u2 + 1) * p0 + (u3 - 2 * u2 + u) * m0 + (-2 * u3 + 3 * u2) * p1 + (u3 - u2) * m1;
+    }
+
+    private static double hermiteDerivative(double[] values, double[] derivatives, int cell, double u, double dt) {
+        double p0 = values[cell];
+        double p1 = values[cell + 1];
+        double m0 = derivatives[cell] * dt;
+        double m1 = derivatives[cell + 1] * dt;
+        double u2 = u * u;
+        return ((6 * u2 - 6 * u) * p0 + (3 * u2 - 4 * u + 1) * m0 + (-6 * u2 + 6 * u) * p1 + (3 * u2 - 2 * u) * m1) / dt;
+    }
+
+    public double getValue(double time) {
+        double position = (time - m_startTime) * m_invDt;
+        if (!(position >= 0) || time > m_endTime)
+            return m_exactCurve.getValue(time);
+
+        int cell = Math.min((int) position, m_cellCount - 1);
+        if (m_exactCells != null && m_exactCells[cell])
+            return m_exactCurve.getValue(time);
+        return hermite(m_values, m_derivatives, cell, position - cell, m_dt);
+    }
+
+    /**
+     * The slope of the interpolating cubic.  Only the value is held to the error bound, the slope is exact at the
+     * grid points and a close approximation between them.
+     */
+    public double getDerivative(double time) {
+        double position = (time - m_startTime) * m_invDt;
+        if (!(position >= 0) || time > m_endTime)
+            return m_exactCurve.getDerivative(time);
+
+        int cell = Math.min((int) position, m_cellCount - 1);
+        if (m_exactCells != null && m_exactCells[cell])
+            return m_exactCurve.getDerivative(time);
+        return hermiteDerivative(m_values, m_derivatives, cell, position - cell, m_dt);
+    }
+
+    /**
+     * The grid spacing actually used, the requested dt divided by a power of two.
+     */
+    public double getDt() {
+        return m_dt;
+    }
+
+    public double getMaxError() {
+        return m_maxError;
+    }
+
+    public int getSampleCount() {
+        return m_values.length;
+    }
+
+    /**
+     * The number of grid cells that could not meet the error bound and are evaluated on the exact curve.
+     */
+    public int getExactCellCount() {
+        return m_exactCellCount;
+    }
+
+    public double getHeadTime() {
+        return m_startTime;
+    }
+
+    public double getLength() {
+        return m_endTime;
+    }
+}
@@ -0,0 +1,700 @@
+package org.team2471.frc.lib.motion_profiling;
+
+import java.util.Arrays;
+
+/**
+ * An immutable, flattened snapshot of a {@link MotionCurve}.
+ * <p>
+ * Key times, values and the cubic coefficients of every segment are copied into primitive arrays, and lookups use a
+ * binary search instead of walking the key list from the last accessed key.  Evaluation cost is therefore independent
+ * of where the previous sample was taken, and since nothing is written during evaluation a compiled curve can be
+ * shared freely between threads.
+ * <p>
+ * The snapshot does not follow later edits to the source curve; call {@link MotionCurve#compile()} again after
+ * changing it.
+ */
+public final class CompiledMotionCurve {
+    static final int SEGMENT_STEPPED = 0;
+    static final int SEGMENT_STEPPED_NEXT = 1;
+    static final int SEGMENT_LINEAR = 2;
+    static final int SEGMENT_CUBIC = 3;    // x is linear in t, only the y cubic is needed
+    static final int SEGMENT_WEIGHTED = 4; // non default magnitudes, x must be inverted through its own cubic
+
+    private final int m_keyCount;
+    private final double[] m_times;
+    private final double[] m_values;
+    private final double[] m_prevSlopes;  // slope of the prev tangent of each key
+    private final double[] m_nextSlopes;  // slope of the next tangent of each key
+    private final int[] m_segmentTypes;
+    private final double[] m_yCoefficients;  // a, b, c, d of each segment, packed 4 per segment
+    private final double[] m_xCoefficients;  // only filled in for SEGMENT_WEIGHTED segments
+    private final double m_defaultValue;
+    private final MotionCurve.ExtrapolationMethods m_preExtrapolation;
+    private final MotionCurve.ExtrapolationMethods m_postExtrapolation;
+    private final SegmentTree m_minValueTree;  // extrema of each whole segment, for range queries
+    private final SegmentTree m_maxValueTree;
+    private final SegmentTree m_maxAbsDerivativeTree;
+    private final double[] m_turningPoints;  // parametric t of up to two turns in y per segment, NaN when unused
+
+    CompiledMotionCurve(MotionCurve motionCurve) {
+        int keyCount = 0;
+        for (MotionKey key = motionCurve.getHeadKey(); key != null; key = key.getNextKey())
+            keyCount++;
+
+        m_keyCount = keyCount;
+        m_times = new double[keyCount];
+        m_values = new double[keyCount];
+        m_prevSlopes = new double[keyCount];
+        m_nextSlopes = new double[keyCount];
+        int segmentCount = Math.max(keyCount - 1, 0);
+        m_segmentTypes = new int[segmentCount];
+        m_yCoefficients = new double[segmentCount * 4];
+        m_xCoefficients = new double[segmentCount * 4];
+        m_defaultValue = motionCurve.getDefaultValue();
+        m_preExtrapolation = motionCurve.getPreExtrapolation();
+        m_postExtrapolation = motionCurve.getPostExtrapolation();
+
+        int i = 0;
+        for (MotionKey key = motionCurve.getHeadKey(); key != null; key = key.getNextKey(), i++) {
+            m_times[i] = key.getTime();
+            m_values[i] = key.getValue();
+            m_prevSlopes[i] = key.getPrevSlope();
+            m_nextSlopes[i] = key.getNextSlope();
+
+            MotionKey nextKey = key.getNextKey();
+            if (nextKey == null)
+                break;
+
+            MotionKey.SlopeMethod nextSlopeMethod = key.getNextSlopeMethod();
+            MotionKey.SlopeMethod prevSlopeMethod = nextKey.getPrevSlopeMethod();
+            if (nextSlopeMethod == MotionKey.SlopeMethod.SLOPE_STEPPED)
+                m_segmentTypes[i] = SEGMENT_STEPPED;
+            else if (nextSlopeMethod == MotionKey.SlopeMethod.SLOPE_STEPPED_NEXT)
+                m_segmentTypes[i] = SEGMENT_STEPPED_NEXT;
+            else if (nextSlopeMethod == MotionKey.SlopeMethod.SLOPE_LINEAR && prevSlopeMethod == MotionKey.SlopeMethod.SLOPE_LINEAR)
+                m_segmentTypes[i] = SEGMENT_LINEAR;
+            else {
+                copyCoefficients(key.getYCoefficients(), m_yCoefficients, i * 4);
+                if (key.isNextSegmentXLinear())
+                    m_segmentTypes[i] = SEGMENT_CUBIC;
+                else {
+                    m_segmentTypes[i] = SEGMENT_WEIGHTED;
+                    copyCoefficients(key.getXCoefficients(), m_xCoefficients, i * 4);
+                }
+            }
+        }
+
+        double[] minValues = new double[segmentCount];
+        double[] maxValues = new double[segmentCount];
+        double[] maxAbsDerivatives = new double[segmentCount];
+        double[] extrema = new double[3];
+        m_turningPoints = new double[segmentCount * 2];
+        Arrays.fill(m_turningPoints, Double.NaN);
+        double[] roots = new double[2];
+        for (int segment = 0; segment < segmentCount; segment++) {
+            if (m_segmentTypes[segment] >= SEGMENT_CUBIC) {
+                int offset = segment * 4;
+                int rootCount = solveQuadratic(3 * m_yCoefficients[offset], 2 * m_yCoefficients[offset + 1], m_yCoefficients[offset + 2], roots);
+                int turnCount = 0;
+                for (int root = 0; root < rootCount; root++) {
+                    if (roots[root] > 0 && roots[root] < 1)
+                        m_turningPoints[segment * 2 + turnCount++] = roots[root];
+                }
+                if (turnCount == 2 && m_turningPoints[segment * 2] > m_turningPoints[segment * 2 + 1]) {
+                    m_turningPoints[segment * 2] = roots[1];
+                    m_turningPoints[segment * 2 + 1] = roots[0];
+                }
+            }
+
+            resetExtrema(extrema);
+            segmentExtrema(segment, 0, 1, extrema);
+            minValues[segment] = extrema[0];
+            maxValues[segment] = extrema[1];
+            maxAbsDerivatives[segment] = extrema[2];
+        }
+        m_minValueTree = new SegmentTree(minValues, false);
+        m_maxValueTree = new SegmentTree(maxValues, true);
+        m_maxAbsDerivativeTree = new SegmentTree(maxAbsDerivatives, true);
+    }
+
+    private static void copyCoefficients(CubicCoefficients1D coefficients, double[] array, int offset) {
+        array[offset] = coefficients.getA();
+        array[offset + 1] = coefficients.getB();
+        array[offset + 2] = coefficients.getC();
+        array[offset + 3] = coefficients.getD();
+    }
+
+    public int getKeyCount() {
+        return m_keyCount;
+    }
+
+    public double getKeyTime(int index) {
+        return m_times[index];
+    }
+
+    public double getKeyValue(int index) {
+        return m_values[index];
+    }
+
+    int getSegmentType(int index) {
+        return m_segmentTypes[index];
+    }
+
+    public double getHeadTime() {
+        return m_keyCount > 0 ? m_times[0] : 0;
+    }
+
+    public double getLength() {
+        return m_keyCount > 0 ? m_times[m_keyCount - 1] : 0;
+    }
+
+    public double getDefaultValue() {
+        return m_defaultValue;
+    }
+
+    // index of the last key at or before time, the caller guarantees head <= time <= tail
+    int findKeyIndex(double time) {
+        int low = 0;
+        int high = m_keyCount - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (m_times[mid] <= time)
+                low = mid;
+            else
+                high = mid - 1;
+        }
+        return low;
+    }
+
+    public double getValue(double time) {
+        if (m_keyCount == 0)
+            return m_defaultValue;
+
+        double headTime = m_times[0];
+        double tailTime = m_times[m_keyCount - 1];
+        double headValue = m_values[0];
+        double tailValue = m_values[m_keyCount - 1];
+
+        double valueOffset = 0;
+        if (time > tailTime || time < headTime) {
+            boolean post = time > tailTime;
+            MotionCurve.ExtrapolationMethods method = post ? m_postExtrapolation : m_preExtrapolation;
+            switch (method) {
+                case EXTRAPOLATION_CONSTANT:
+                    return post ? tailValue : headValue;
+                case EXTRAPOLATION_LINEAR:
+                    return post ? tailValue + m_prevSlopes[m_keyCount - 1] * (time - tailTime) : headValue + m_nextSlopes[0] * (time - headTime);
+                default: {
+                    if (tailTime == headTime)
+                        return headValue;
+                    double periods = MotionCurve.periodCount(time, headTime, tailTime);
+                    if (method == MotionCurve.ExtrapolationMethods.EXTRAPOLATION_CYCLE_RELATIVE)
+                        valueOffset = periods * (tailValue - headValue);
+                    time = MotionCurve.periodicTime(method, time, headTime, tailTime, periods);
+                }
+            }
+        }
+
+        int index = findKeyIndex(time);
+        if (m_times[index] == time || index == m_keyCount - 1)
+            return valueOffset + m_values[index];
+        return valueOffset + interpolateValue(time, index);
+    }
+
+    public double getDerivative(double time) {
+        if (m_keyCount < 2)
+            return 0;
+
+        double headTime = m_times[0];
+        double tailTime = m_times[m_keyCount - 1];
+        if (headTime == tailTime)
+            return 0;
+
+        double slopeSign = 1;
+        if (time > tailTime || time < headTime) {
+            boolean post = time > tailTime;
+            MotionCurve.ExtrapolationMethods method = post ? m_postExtrapolation : m_preExtrapolation;
+            switch (method) {
+                case EXTRAPOLATION_CONSTANT:
+                    return 0;
+                case EXTRAPOLATION_LINEAR:
+                    return post ? m_prevSlopes[m_keyCount - 1] : m_nextSlopes[0];
+                default: {
+                    double periods = MotionCurve.periodCount(time, headTime, tailTime);
+                    if (method == MotionCurve.ExtrapolationMethods.EXTRAPOLATION_OSCILLATE && periods % 2 != 0)
+                        slopeSign = -1;
+                    time = MotionCurve.periodicTime(method, time, headTime, tailTime, periods);
+                }
+            }
+        }
+
+        int index = findKeyIndex(time);
+        if (index == m_keyCount - 1)
+            return slopeSign * m_prevSlopes[index];
+        if (m_times[index] == time)
+            return slopeSign * m_nextSlopes[index];
+        return slopeSign * interpolateDerivative(time, index);
+    }
+
+    /**
+     * Fills out with the value, slope and curvature of the curve at time, see {@link MotionCurve#evaluate}.
+     */
+    public void evaluate(double time, MotionSample out) {
+        double valueOffset = 0;
+        double slopeSign = 1;
+        if (m_keyCount < 2 || time < m_times[0] || time > m_times[m_keyCount - 1]) {
+            MotionCurve.ExtrapolationMethods method = m_keyCount > 0 && time > m_times[m_keyCount - 1] ? m_postExtrapolation : m_preExtrapolation;
+            if (m_keyCount < 2 || m_times[0] == m_times[m_keyCount - 1] || !MotionCurve.isPeriodic(method)) {
+                out.set(getValue(time), getDerivative(time), 0);
+                return;
+            }
+
+            double headTime = m_times[0];
+            double tailTime = m_times[m_keyCount - 1];
+            double periods = MotionCurve.periodCount(time, headTime, tailTime);
+            if (method == MotionCurve.ExtrapolationMethods.EXTRAPOLATION_CYCLE_RELATIVE)
+                valueOffset = periods * (m_values[m_keyCount - 1] - m_values[0]);
+            else if (method == MotionCurve.ExtrapolationMethods.EXTRAPOLATION_OSCILLATE && periods % 2 != 0)
+                slopeSign = -1;
+            time = MotionCurve.periodicTime(method, time, headTime, tailTime, periods);
+        }
+
+        int index = findKeyIndex(time);
+        if (index == m_keyCount - 1) {
+            evaluateSegment(time, index - 1, out);
+            out.set(m_values[index], m_prevSlopes[index], out.getSecondDerivative());
+        } else {
+            evaluateSegment(time, index, out);
+            if (m_times[index] == time)
+                out.set(m_values[index], m_nextSlopes[index], out.getSecondDerivative());
+        }
+        out.set(valueOffset + out.getValue(), slopeSign * out.getDerivative(), out.getSecondDerivative());
+    }
+
+    void evaluateSegment(double time, int index, MotionSample out) {
+        switch (m_segmentTypes[index]) {
+            case SEGMENT_STEPPED:
+                out.set(m_values[index], 0, 0);
+                return;
+            case SEGMENT_STEPPED_NEXT:
+                out.set(m_values[index + 1], 0, 0);
+                return;
+            case SEGMENT_LINEAR: {
+                double slope = (m_values[index + 1] - m_values[index]) / (m_times[index + 1] - m_times[index]);
+                out.set(m_values[index] + (time - m_times[index]) * slope, slope, 0);
+                return;
+            }
+            case SEGMENT_CUBIC: {
+                double t = solveForT(time, index);
+                double xspan = m_times[index + 1] - m_times[index];
+                out.set(evaluate(m_yCoefficients, index * 4, t),
+                        derivative(m_yCoefficients, index * 4, t) / xspan,
+                        secondDerivative(m_yCoefficients, index * 4, t) / (xspan * xspan));
+                return;
+            }
+            default: {
+                double t = solveForT(time, index);
+                double dy = derivative(m_yCoefficients, index * 4, t);
+                double ddy = secondDerivative(m_yCoefficients, index * 4, t);
+                double dx = derivative(m_xCoefficients, index * 4, t);
+                double ddx = secondDerivative(m_xCoefficients, index * 4, t);
+                out.set(evaluate(m_yCoefficients, index * 4, t), dy / dx, (ddy * dx - dy * ddx) / (dx * dx * dx));
+            }
+        }
+    }
+
+    private double interpolateValue(double time, int index) {
+        switch (m_segmentTypes[index]) {
+            case SEGMENT_STEPPED:
+                return m_values[index];
+            case SEGMENT_STEPPED_NEXT:
+                return m_values[index + 1];
+            case SEGMENT_LINEAR:
+                return m_values[index] + (time - m_times[index])
+                        / (m_times[index + 1] - m_times[index])
+                        * (m_values[index + 1] - m_values[index]);
+            default:
+                return evaluate(m_yCoefficients, index * 4, solveForT(time, index));
+        }
+    }
+
+    private double interpolateDerivative(double time, int index) {
+        switch (m_segmentTypes[index]) {
+            case SEGMENT_STEPPED:
+            case SEGMENT_STEPPED_NEXT:
+                return 0;
+            case SEGMENT_LINEAR:
+                return (m_values[index + 1] - m_values[index]) / (m_times[index + 1] - m_times[index]);
+            case SEGMENT_CUBIC:
+                return derivative(m_yCoefficients, index * 4, solveForT(time, index)) / (m_times[index + 1] - m_times[index]);
+            default: {
+                double t = solveForT(time, index);
+                return derivative(m_yCoefficients, index * 4, t) / derivative(m_xCoefficients, index * 4, t);
+            }
+        }
+    }
+
+    /**
+     * The largest value the curve reaches between t0 and t1, found from the analytic extrema of each segment rather
+     * than by sampling.  Segments wholly inside the range are looked up in a segment tree, so this is O(log n).
+     * Periodic extrapolation is bounded by the extremes of a whole period.
+     */
+    public double maxValue(double t0, double t1) {
+        double[] extrema = new double[3];
+        rangeExtrema(t0, t1, extrema);
+        return extrema[1];
+    }
+
+    /**
+     * The smallest value the curve reaches between t0 and t1, see {@link #maxValue}.
+     */
+    public double minValue(double t0, double t1) {
+        double[] extrema = new double[3];
+        rangeExtrema(t0, t1, extrema);
+        return extrema[0];
+    }
+
+    /**
+     * The largest magnitude of the slope between t0 and t1, see {@link #maxValue}.  Stepped segments count as flat,
+     * as they do for getDerivative.
+     */
+    public double maxAbsDerivative(double t0, double t1) {
+        double[] extrema = new double[3];
+        rangeExtrema(t0, t1, extrema);
+        return extrema[2];
+    }
+
+    // whether time runs forwards all through a segment, weighted tangents near the clamp of three times the span bring
+    // x' down to zero in the middle of it, where the curve turns vertical
+    boolean isMonotone(int index) {
+        if (m_segmentTypes[index] != SEGMENT_WEIGHTED)
+            return true;
+
+        int offset = index * 4;
+        double a = m_xCoefficients[offset];
+        if (a <= 0)
+            return true;  // x' is at its smallest at an end, where the tangents point forwards
+        double vertex = -m_xCoefficients[offset + 1] / (3 * a);
+        double span = m_times[index + 1] - m_times[index];
+        return !(vertex > 0 && vertex < 1) || derivative(m_xCoefficients, offset, vertex) > 1e-6 * span;
+    }
+
+    // the largest magnitude of the slope inside one segment, leaving out the neighbouring segments at its keys
+    double maxAbsSegmentDerivative(int index) {
+        double[] extrema = new double[3];
+        resetExtrema(extrema);
+        segmentExtrema(index, 0, 1, extrema);
+        return extrema[2];
+    }
+
+    /**
+     * The first time at or after fromTime at which the curve reaches value, or NaN if it never does.  A stepped
+     * segment reaches every value its step passes at the time of the step.
+     * <p>
+     * Segments that can't contain the value are skipped through the extrema tree and each segment is split where it
+     * turns, so the crossing is found by inverting a single monotone cubic.  Thresholds can therefore be turned into
+     * exact trigger times ahead of time instead of polling getValue.  Constant and linear extrapolation are searched
+     * as well, the repeats of periodic extrapolation are not.
+     */
+    public double timeOfValue(double value, double fromTime) {
+        if (m_keyCount == 0)
+            return value == m_defaultValue ? fromTime : Double.NaN;
+        if (getValue(fromTime) == value)
+            return fromTime;
+
+        double headTime = m_times[0];
+        double tailTime = m_times[m_keyCount - 1];
+        if (fromTime < headTime) {
+            double time = extrapolatedTimeOfValue(value, m_preExtrapolation, m_values[0], m_keyCount > 1 ? m_nextSlopes[0] : 0, headTime);
+            if (time >= fromTime && time <= headTime)
+                return time;
+            fromTime = headTime;
+        }
+
+        if (fromTime < tailTime) {
+            int segment = findKeyIndex(fromTime);
+            double time = segmentTimeOfValue(segment, value, solveForT(fromTime, segment));
+            if (!Double.isNaN(time))
+                return time;
+
+            for (segment = findSegmentContaining(value, segment + 1); segment >= 0; segment = findSegmentContaining(value, segment + 1)) {
+                time = segmentTimeOfValue(segment, value, 0);
+                if (!Double.isNaN(time))
+                    return time;
+            }
+        }
+
+        double time = extrapolatedTimeOfValue(value, m_postExtrapolation, m_values[m_keyCount - 1], m_keyCount > 1 ? m_prevSlopes[m_keyCount - 1] : 0, tailTime);
+        return time >= Math.max(fromTime, tailTime) ? time : Double.NaN;
+    }
+
+    private static double extrapolatedTimeOfValue(double value, MotionCurve.ExtrapolationMethods method, double keyValue, double slope, double keyTime) {
+        if (method != MotionCurve.ExtrapolationMethods.EXTRAPOLATION_LINEAR || slope == 0 || Double.isNaN(slope))
+            return Double.NaN;
+        return keyTime + (value - keyValue) / slope;
+    }
+
+    // the first segment at or after from whose range of values includes value, walking the extrema trees top down
+    private int findSegmentContaining(double value, int from) {
+        return findSegmentContaining(value, from, 1, 0, m_minValueTree.getLeafCount());
+    }
+
+    private int findSegmentContaining(double value, int from, int node, int nodeStart, int nodeEnd) {
+        if (nodeEnd <= from || m_minValueTree.getNode(node) > value || m_maxValueTree.getNode(node) < value)
+            return -1;
+        if (nodeEnd - nodeStart == 1)
+            return nodeStart;
+
+        int middle = (nodeStart + nodeEnd) >>> 1;
+        int segment = findSegmentContaining(value, from, node * 2, nodeStart, middle);
+        return segment >= 0 ? segment : findSegmentContaining(value, from, node * 2 + 1, middle, nodeEnd);
+    }
+
+    // the first time in segment index, from parametric t onwards, at which the curve reaches value, NaN if it doesn't
+    private double segmentTimeOfValue(int index, double value, double from) {
+        double startTime = m_times[index];
+        double endTime = m_times[index + 1];
+        double startValue = m_values[index];
+        double endValue = m_values[index + 1];
+        switch (m_segmentTypes[index]) {
+            case SEGMENT_STEPPED:
+                if (from <= 0 && value == startValue)
+                    return startTime;
+                return isBetween(value, startValue, endValue) ? endTime : Double.NaN;
+            case SEGMENT_STEPPED_NEXT:
+                return from <= 0 && isBetween(value, startValue, endValue) ? startTime : Double.NaN;
+            case SEGMENT_LINEAR: {
+                if (!isBetween(value, startValue, endValue))
+                    return Double.NaN;
+                if (startValue == endValue)
+                    return startTime + from * (endTime - startTime);
+                double time = startTime + (value - startValue) / (endValue - startValue) * (endTime - startTime);
+                return time >= startTime + from * (endTime - startTime) ? time : Double.NaN;
+            }
+        }
+
+        // walk the monotone pieces between the turning points
+        int offset = index * 4;
+        double pieceStart = 0;
+        for (int piece = 0; piece < 3; piece++) {
+            double pieceEnd = piece < 2 && !Double.isNaN(m_turningPoints[index * 2 + piece]) ? m_turningPoints[index * 2 + piece] : 1;
+            if (pieceEnd > from) {
+                double low = Math.max(pieceStart, from);
+                double t = solveMonotone(offset, value, low, pieceEnd);
+                if (!Double.isNaN(t))
+                    return m_segmentTypes[index] == SEGMENT_WEIGHTED ? evaluate(m_xCoefficients, offset, t) : startTime + t * (endTime - startTime);
+            }
+            if (pieceEnd == 1)
+                break;
+            pieceStart = pieceEnd;
+        }
+        return Double.NaN;
+    }
+
+    // parametric t in [low, high], over which the y cubic is monotone, where it equals value
+    private double solveMonotone(int offset, double value, double low, double high) {
+        double lowValue = evaluate(m_yCoefficients, offset, low);
+        double highValue = evaluate(m_yCoefficients, offset, high);
+        if (!isBetween(value, lowValue, highValue))
+            return Double.NaN;
+        if (lowValue == value)
+            return low;
+
+        double sign = highValue >= lowValue ? 1 : -1;
+        for (int i = 0; i < 64 && high - low > 1e-15; i++) {
+            double t = (low + high) * 0.5;
+            double diff = (evaluate(m_yCoefficients, offset, t) - value) * sign;
+            if (diff == 0)
+                return t;
+            if (diff < 0)
+                low = t;
+            else
+                high = t;
+        }
+        return (low + high) * 0.5;
+    }
+
+    private static boolean isBetween(double value, double a, double b) {
+        return a <= b ? value >= a && value <= b : value >= b && value <= a;
+    }
+
+    // fills extrema with the min value, max value and max absolute slope between t0 and t1
+    void rangeExtrema(double t0, double t1, double[] extrema) {
+        if (t0 > t1) {
+            double swap = t0;
+            t0 = t1;
+            t1 = swap;
+        }
+
+        resetExtrema(extrema);
+        includeValue(extrema, getValue(t0));
+        includeValue(extrema, getValue(t1));
+        includeDerivative(extrema, getDerivative(t0));
+        includeDerivative(extrema, getDerivative(t1));
+        if (m_keyCount < 2)
+            return;
+
+        double headTime = m_times[0];
+        double tailTime = m_times[m_keyCount - 1];
+        if (t0 < headTime)
+            includeExtrapolation(extrema, m_preExtrapolation, (tailTime - t0) / (tailTime - headTime), m_values[0] - m_values[m_keyCount - 1]);
+        if (t1 > tailTime)
+            includeExtrapolation(extrema, m_postExtrapolation, (t1 - headTime) / (tailTime - headTime), m_values[m_keyCount - 1] - m_values[0]);
+
+        double start = Math.max(t0, headTime);
+        double end = Math.min(t1, tailTime);
+        if (start > end)
+            return;
+
+        int startIndex = Math.min(findKeyIndex(start), m_keyCount - 2);
+        int endIndex = Math.min(findKeyIndex(end), m_keyCount - 2);
+        if (startIndex == endIndex) {
+            segmentExtrema(startIndex, solveForT(start, startIndex), solveForT(end, startIndex), extrema);
+            return;
+        }
+
+        segmentExtrema(startIndex, solveForT(start, startIndex), 1, extrema);
+        segmentExtrema(endIndex, 0, solveForT(end, endIndex), extrema);
+        if (endIndex > startIndex + 1) {
+            includeValue(extrema, m_minValueTree.query(startIndex + 1, endIndex));
+            includeValue(extrema, m_maxValueTree.query(startIndex + 1, endIndex));
+            includeDerivative(extrema, m_maxAbsDerivativeTree.query(startIndex + 1, endIndex));
+        }
+    }
+
+    // periods repeat the whole curve, cycle relative ones shifted by the change over a period for every repeat
+    private void includeExtrapolation(double[] extrema, MotionCurve.ExtrapolationMethods method, double periods, double periodShift) {
+        if (method == MotionCurve.ExtrapolationMethods.EXTRAPOLATION_CONSTANT || method == MotionCurve.ExtrapolationMethods.EXTRAPOLATION_LINEAR)
+            return;  // monotone, the values at the ends of the range already bound it
+
+        double minValue = m_minValueTree.getAll();
+        double maxValue = m_maxValueTree.getAll();
+        double shift = method == MotionCurve.ExtrapolationMethods.EXTRAPOLATION_CYCLE_RELATIVE ? periodShift * Math.floor(periods) : 0;
+        includeValue(extrema, minValue + Math.min(shift, 0));
+        includeValue(extrema, maxValue + Math.max(shift, 0));
+        includeDerivative(extrema, m_maxAbsDerivativeTree.getAll());
+    }
+
+    private static void resetExtrema(double[] extrema) {
+        extrema[0] = Double.POSITIVE_INFINITY;
+        extrema[1] = Double.NEGATIVE_INFINITY;
+        extrema[2] = 0;
+    }
+
+    private static void includeValue(double[] extrema, double value) {
+        extrema[0] = Math.min(extrema[0], value);
+        extrema[1] = Math.max(extrema[1], value);
+    }
+
+    private static void includeDerivative(double[] extrema, double derivative) {
+        extrema[2] = Math.max(extrema[2], Math.abs(derivative));
+    }
+
+    // widens extrema by the values and slopes of segment index between parametric t0 and t1
+    private void segmentExtrema(int index, double t0, double t1, double[] extrema) {
+        switch (m_segmentTypes[index]) {
+            case SEGMENT_STEPPED:
+                if (t0 < 1)
+                    includeValue(extrema, m_values[index]);
+                if (t1 >= 1)
+                    includeValue(extrema, m_values[index + 1]);
+                return;
+            case SEGMENT_STEPPED_NEXT:
+                if (t0 <= 0)
+                    includeValue(extrema, m_values[index]);
+                if (t1 > 0)
+                    includeValue(extrema, m_values[index + 1]);
+                return;
+            case SEGMENT_LINEAR: {
+                double slope = (m_values[index + 1] - m_values[index]) / (m_times[index + 1] - m_times[index]);
+                includeValue(extrema, m_values[index] + t0 * (m_values[index + 1] - m_values[index]));
+                includeValue(extrema, m_values[index] + t1 * (m_values[index + 1] - m_values[index]));
+                includeDerivative(extrema, slope);
+                return;
+            }
+        }
+
+        int offset = index * 4;
+        includeValue(extrema, evaluate(m_yCoefficients, offset, t0));
+        includeValue(extrema, evaluate(m_yCoefficients, offset, t1));
+        double[] roots = new double[2];
+        int rootCount = solveQuadratic(3 * m_yCoefficients[offset], 2 * m_yCoefficients[offset + 1], m_yCoefficients[offset + 2], roots);
+        for (int i = 0; i < rootCount; i++) {
+            if (roots[i] > t0 && roots[i] < t1)
+                includeValue(extrema, evaluate(m_yCoefficients, offset, roots[i]));
+        }
+
+        if (m_segmentTypes[index] == SEGMENT_CUBIC) {
+            double xspan = m_times[index + 1] - m_times[index];
+            includeDerivative(extrema, derivative(m_yCoefficients, offset, t0) / xspan);
+            includeDerivative(extrema, derivative(m_yCoefficients, offset, t1) / xspan);
+            double a = m_yCoefficients[offset];
+            if (a != 0) {
+                double vertex = -m_yCoefficients[offset + 1] / (3 * a);
+                if (vertex > t0 && vertex < t1)
+                    includeDerivative(extrema, derivative(m_yCoefficients, offset, vertex) / xspan);
+            }
+            return;
+        }
+
+        // dy/dx = y'/x', its extrema are where y''x' - y'x'' = 0, and the cubic terms of that cancel
+        includeDerivative(extrema, weightedDerivative(offset, t0));
+        includeDerivative(extrema, weightedDerivative(offset, t1));
+        double ya = 3 * m_yCoefficients[offset], yb = 2 * m_yCoefficients[offset + 1], yc = m_yCoefficients[offset + 2];
+        double xa = 3 * m_xCoefficients[offset], xb = 2 * m_xCoefficients[offset + 1], xc = m_xCoefficients[offset + 2];
+        rootCount = solveQuadratic(ya * xb - yb * xa, 2 * (ya * xc - yc * xa), yb * xc - yc * xb, roots);
+        for (int i = 0; i < rootCount; i++) {
+            if (roots[i] > t0 && roots[i] < t1)
+                includeDerivative(extrema, weightedDerivative(offset, roots[i]));
+        }
+    }
+
+    private double weightedDerivative(int offset, double t) {
+        return derivative(m_yCoefficients, offset, t) / derivative(m_xCoefficients, offset, t);
+    }
+
+    // real roots of a*t^2 + b*t + c, returns how many were written to roots
+    static int solveQuadratic(double a, double b, double c, double[] roots) {
+        if (Math.abs(a) <= 1e-12 * (Math.abs(b) + Math.abs(c))) {
+            if (b == 0)
+                return 0;
+            roots[0] = -c / b;
+            return 1;
+        }
+
+        double discriminant = b * b - 4 * a * c;
+        if (discriminant < 0)
+            return 0;
+        double q = -0.5 * (b + Math.copySign(Math.sqrt(discriminant), b));
+        roots[0] = q / a;
+        if (q == 0)
+            return 1;
+        roots[1] = c / q;
+        return 2;
+    }
+
+    // the parametric t of the segment cubics at which the curve reaches time
+    private double solveForT(double time, int index) {
+        double pointax = m_times[index];
+        double guesst = (time - pointax) / (m_times[index + 1] - pointax);
+
+        if (m_segmentTypes[index] != SEGMENT_WEIGHTED)
+            return guesst;
+
+        int offset = index * 4;
+        return CubicCoefficients1D.solve(m_xCoefficients[offset], m_xCoefficients[offset + 1], m_xCoefficients[offset + 2],
+                m_xCoefficients[offset + 3], time, guesst, MotionCurve.MAXFRAMEERROR / 30.0f, null);
+    }
+
+    static double evaluate(double[] coefficients, int offset, double t) {
+        return t * (t * (coefficients[offset] * t + coefficients[offset + 1]) + coefficients[offset + 2]) + coefficients[offset + 3];
+    }
+
+    static double derivative(double[] coefficients, int offset, double t) {
+        return t * (3 * coefficients[offset] * t + 2 * coefficients[offset + 1]) + coefficients[offset + 2];
+    }
+
+    static double secondDerivative(double[] coefficients, int offset, double t) {
+        return 6 * coefficients[offset] * t + 2 * coefficients[offset + 1];
+    }
+}
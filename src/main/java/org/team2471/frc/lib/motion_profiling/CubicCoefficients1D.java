@@ -7,6 +7,10 @@ public class CubicCoefficients1D {
     private double fdPrevValue;
 
     CubicCoefficients1D(double p1, double p4, double r1, double r4) {  // construct from two values and two tangents (slope)
+        set(p1, p4, r1, r4);
+    }
+
+    void set(double p1, double p4, double r1, double r4) {  // recompute in place so keys can reuse their coefficients
         //   a     2 -2  1  1   p1
         //   b =  -3  3 -2 -1 * p4
         //   c     0  0  1  0   r1
@@ -26,7 +30,51 @@ public class CubicCoefficients1D {
     }
 
     double secondDerivative(double t) {
-        return 3 * a * t + 2 * b;
+        return 6 * a * t + 2 * b;
+    }
+
+    double solve(double x, double guess, double tolerance, InversionStatistics statistics) {
+        return solve(a, b, c, d, x, guess, tolerance, statistics);
+    }
+
+    static final int MAX_SOLVE_ITERATIONS = 32;  // enough bisections to shrink the bracket below 2^-32
+
+    // finds t in [0, 1] where the cubic equals x, for cubics which start below x and end above it.  Newton steps are
+    // kept inside a bracket around the root and replaced by bisection whenever they would leave it, so this always
+    // converges and never takes more than MAX_SOLVE_ITERATIONS steps.  statistics may be null.
+    static double solve(double a, double b, double c, double d, double x, double guess, double tolerance, InversionStatistics statistics) {
+        double low = 0;
+        double high = 1;
+        double t = Math.min(Math.max(guess, low), high);
+        int iterations = 0;
+        int bisections = 0;
+        boolean converged = false;
+
+        while (iterations < MAX_SOLVE_ITERATIONS) {
+            double diff = t * (t * (a * t + b) + c) + d - x;
+            if (Math.abs(diff) <= tolerance) {
+                converged = true;
+                break;
+            }
+
+            if (diff < 0)
+                low = t;
+            else
+                high = t;
+
+            iterations++;
+            double slope = t * (3 * a * t + 2 * b) + c;
+            double next = t - diff / slope;
+            if (!(next > low && next < high)) {  // also catches a zero or NaN slope
+                next = (low + high) * 0.5;
+                bisections++;
+            }
+            t = next;
+        }
+
+        if (statistics != null)
+            statistics.record(iterations, bisections, !converged);
+        return t;
     }
 
     double initFD(int steps) {
@@ -62,6 +110,44 @@ public class CubicCoefficients1D {
         return fda;
     }
 
+    double getA() {
+        return a;
+    }
+
+    double getB() {
+        return b;
+    }
+
+    double getC() {
+        return c;
+    }
+
+    double getD() {
+        return d;
+    }
+
+    // forward differencing state owned by the caller, starting at t and stepping by delta, so that several
+    // callers can step the same coefficients at once.  fd[0..3] steps the value, fd[4..6] steps the derivative.
+    void initFD(double t, double delta, double[] fd) {
+        double delta2 = delta * delta;
+        double delta3 = delta2 * delta;
+        fd[0] = evaluate(t);
+        fd[1] = a * (3 * t * t * delta + 3 * t * delta2 + delta3) + b * (2 * t * delta + delta2) + c * delta;
+        fd[2] = a * (6 * t * delta2 + 6 * delta3) + 2 * b * delta2;
+        fd[3] = 6 * a * delta3;
+        fd[4] = derivative(t);
+        fd[5] = 3 * a * (2 * t * delta + delta2) + 2 * b * delta;
+        fd[6] = 6 * a * delta2;
+    }
+
+    static void bumpFDFaster(double[] fd) {
+        fd[0] += fd[1];
+        fd[1] += fd[2];
+        fd[2] += fd[3];
+        fd[4] += fd[5];
+        fd[5] += fd[6];
+    }
+
     double getFDValue() {
         return fda;
     }
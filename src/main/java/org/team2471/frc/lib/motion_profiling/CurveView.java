@@ -0,0 +1,402 @@
+package org.team2471.frc.lib.motion_profiling;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A channel derived from one or more {@link MotionCurve}s, evaluated lazily instead of being sampled into a new curve.
+ * <p>
+ * Views are built by chaining, for example {@code CurveView.of(ease).timeWarp(speed, 0).scaleOffset(2, 1)}, and read
+ * through their source curves on every call, so they follow edits and lose no precision.  {@link #compile()} fuses a
+ * view tree for repeated evaluation: every curve is replaced by its immutable {@link CompiledMotionCurve}, chains of
+ * time warps and scales collapse into a single affine map around each curve, and nested sums flatten into one loop.
+ * A compiled view doesn't follow later edits and can be shared between threads.
+ */
+public abstract class CurveView {
+    public abstract double getValue(double time);
+
+    public abstract double getDerivative(double time);
+
+    /**
+     * Fills out with the value and first and second derivatives at time in one pass over the view tree.
+     */
+    public abstract void evaluate(double time, MotionSample out);
+
+    /**
+     * A fused snapshot of this view, see the class comment.
+     */
+    public abstract CurveView compile();
+
+    public static CurveView of(MotionCurve motionCurve) {
+        return new Source(motionCurve);
+    }
+
+    public static CurveView constant(double value) {
+        return new Constant(value);
+    }
+
+    /**
+     * The view whose value is the time itself.
+     */
+    public static CurveView time() {
+        return new Term(null, 1, 0, 1, 0);
+    }
+
+    /**
+     * This view evaluated at time * timeScale + timeOffset.
+     */
+    public CurveView timeWarp(double timeScale, double timeOffset) {
+        return new TimeWarp(this, timeScale, timeOffset);
+    }
+
+    /**
+     * This view's value times scale, plus offset.
+     */
+    public CurveView scaleOffset(double scale, double offset) {
+        return new ScaleOffset(this, scale, offset);
+    }
+
+    public CurveView plus(CurveView other) {
+        return new Sum(new CurveView[]{this, other});
+    }
+
+    public CurveView times(CurveView other) {
+        return new Product(this, other);
+    }
+
+    /**
+     * This view evaluated at the value of inner, this(inner(time)).
+     */
+    public CurveView compose(CurveView inner) {
+        return new Compose(this, inner);
+    }
+
+    private static final class Source extends CurveView {
+        private final MotionCurve m_motionCurve;
+
+        Source(MotionCurve motionCurve) {
+            m_motionCurve = motionCurve;
+        }
+
+        public double getValue(double time) {
+            return m_motionCurve.getValue(time);
+        }
+
+        public double getDerivative(double time) {
+            return m_motionCurve.getDerivative(time);
+        }
+
+        public void evaluate(double time, MotionSample out) {
+            m_motionCurve.evaluate(time, out);
+        }
+
+        public CurveView compile() {
+            return new Term(m_motionCurve.compile(), 1, 0, 1, 0);
+        }
+    }
+
+    private static final class Constant extends CurveView {
+        private final double m_value;
+
+        Constant(double value) {
+            m_value = value;
+        }
+
+        public double getValue(double time) {
+            return m_value;
+        }
+
+        public double getDerivative(double time) {
+            return 0;
+        }
+
+        public void evaluate(double time, MotionSample out) {
+            out.set(m_value, 0, 0);
+        }
+
+        public CurveView compile() {
+            return this;
+        }
+    }
+
+    // valueScale * curve(time * timeScale + timeOffset) + valueOffset, the fused form of a compiled curve with every
+    // warp and scale applied to it.  A null curve stands for the identity, which makes this the time view.
+    private static final class Term extends CurveView {
+        private final CompiledMotionCurve m_curve;
+        private final double m_timeScale;
+        private final double m_timeOffset;
+        private final double m_valueScale;
+        private final double m_valueOffset;
+
+        Term(CompiledMotionCurve curve, double timeScale, double timeOffset, double valueScale, double valueOffset) {
+            m_curve = curve;
+            m_timeScale = timeScale;
+            m_timeOffset = timeOffset;
+            m_valueScale = valueScale;
+            m_valueOffset = valueOffset;
+        }
+
+        public double getValue(double time) {
+            double warpedTime = time * m_timeScale + m_timeOffset;
+            return m_valueScale * (m_curve != null ? m_curve.getValue(warpedTime) : warpedTime) + m_valueOffset;
+        }
+
+        public double getDerivative(double time) {
+            double warpedTime = time * m_timeScale + m_timeOffset;
+            return m_valueScale * m_timeScale * (m_curve != null ? m_curve.getDerivative(warpedTime) : 1);
+        }
+
+        public void evaluate(double time, MotionSample out) {
+            double warpedTime = time * m_timeScale + m_timeOffset;
+            if (m_curve != null)
+                m_curve.evaluate(warpedTime, out);
+            else
+                out.set(warpedTime, 1, 0);
+            out.set(m_valueScale * out.getValue() + m_valueOffset,
+                    m_valueScale * m_timeScale * out.getDerivative(),
+                    m_valueScale * m_timeScale * m_timeScale * out.getSecondDerivative());
+        }
+
+        public CurveView compile() {
+            return this;
+        }
+
+        Term warp(double timeScale, double timeOffset) {
+            return new Term(m_curve, m_timeScale * timeScale, m_timeScale * timeOffset + m_timeOffset, m_valueScale, m_valueOffset);
+        }
+
+        Term scale(double scale, double offset) {
+            return new Term(m_curve, m_timeScale, m_timeOffset, m_valueScale * scale, m_valueOffset * scale + offset);
+        }
+    }
+
+    private static final class TimeWarp extends CurveView {
+        private final CurveView m_view;
+        private final double m_timeScale;
+        private final double m_timeOffset;
+
+        TimeWarp(CurveView view, double timeScale, double timeOffset) {
+            m_view = view;
+            m_timeScale = timeScale;
+            m_timeOffset = timeOffset;
+        }
+
+        public double getValue(double time) {
+            return m_view.getValue(time * m_timeScale + m_timeOffset);
+        }
+
+        public double getDerivative(double time) {
+            return m_timeScale * m_view.getDerivative(time * m_timeScale + m_timeOffset);
+        }
+
+        public void evaluate(double time, MotionSample out) {
+            m_view.evaluate(time * m_timeScale + m_timeOffset, out);
+            out.set(out.getValue(), m_timeScale * out.getDerivative(), m_timeScale * m_timeScale * out.getSecondDerivative());
+        }
+
+        public CurveView compile() {
+            return warp(m_view.compile(), m_timeScale, m_timeOffset);
+        }
+
+        static CurveView warp(CurveView compiled, double timeScale, double timeOffset) {
+            if (compiled instanceof Constant)
+                return compiled;
+            if (compiled instanceof Term)
+                return ((Term) compiled).warp(timeScale, timeOffset);
+            if (compiled instanceof Sum) {  // a warp distributes over the terms of a sum
+                CurveView[] views = ((Sum) compiled).m_views;
+                CurveView[] warped = new CurveView[views.length];
+                for (int i = 0; i < views.length; i++)
+                    warped[i] = warp(views[i], timeScale, timeOffset);
+                return new Sum(warped);
+            }
+            return new TimeWarp(compiled, timeScale, timeOffset);
+        }
+    }
+
+    private static final class ScaleOffset extends CurveView {
+        private final CurveView m_view;
+        private final double m_scale;
+        private final double m_offset;
+
+        ScaleOffset(CurveView view, double scale, double offset) {
+            m_view = view;
+            m_scale = scale;
+            m_offset = offset;
+        }
+
+        public double getValue(double time) {
+            return m_scale * m_view.getValue(time) + m_offset;
+        }
+
+        public double getDerivative(double time) {
+            return m_scale * m_view.getDerivative(time);
+        }
+
+        public void evaluate(double time, MotionSample out) {
+            m_view.evaluate(time, out);
+            out.set(m_scale * out.getValue() + m_offset, m_scale * out.getDerivative(), m_scale * out.getSecondDerivative());
+        }
+
+        public CurveView compile() {
+            return scale(m_view.compile(), m_scale, m_offset);
+        }
+
+        static CurveView scale(CurveView compiled, double scale, double offset) {
+            if (compiled instanceof Constant)
+                return new Constant(scale * ((Constant) compiled).m_value + offset);
+            if (compiled instanceof Term)
+                return ((Term) compiled).scale(scale, offset);
+            if (compiled instanceof Sum) {  // scale every term, the offset joins the constant part
+                CurveView[] views = ((Sum) compiled).m_views;
+                CurveView[] scaled = new CurveView[views.length + 1];
+                for (int i = 0; i < views.length; i++)
+                    scaled[i] = scale(views[i], scale, 0);
+                scaled[views.length] = new Constant(offset);
+                return Sum.flatten(scaled);
+            }
+            return new ScaleOffset(compiled, scale, offset);
+        }
+    }
+
+    private static final class Sum extends CurveView {
+        private final CurveView[] m_views;
+
+        Sum(CurveView[] views) {
+            m_views = views;
+        }
+
+        public double getValue(double time) {
+            double value = 0;
+            for (CurveView view : m_views)
+                value += view.getValue(time);
+            return value;
+        }
+
+        public double getDerivative(double time) {
+            double derivative = 0;
+            for (CurveView view : m_views)
+                derivative += view.getDerivative(time);
+            return derivative;
+        }
+
+        public void evaluate(double time, MotionSample out) {
+            double value = 0, derivative = 0, secondDerivative = 0;
+            for (CurveView view : m_views) {
+                view.evaluate(time, out);
+                value += out.getValue();
+                derivative += out.getDerivative();
+                secondDerivative += out.getSecondDerivative();
+            }
+            out.set(value, derivative, secondDerivative);
+        }
+
+        public CurveView compile() {
+            CurveView[] compiled = new CurveView[m_views.length];
+            for (int i = 0; i < m_views.length; i++)
+                compiled[i] = m_views[i].compile();
+            return flatten(compiled);
+        }
+
+        // pulls the terms of nested sums up into one list and folds the constants together
+        static CurveView flatten(CurveView[] compiled) {
+            List<CurveView> views = new ArrayList<>();
+            double constant = collect(compiled, views);
+            if (constant != 0 || views.isEmpty())
+                views.add(new Constant(constant));
+            return views.size() == 1 ? views.get(0) : new Sum(views.toArray(new CurveView[0]));
+        }
+
+        private static double collect(CurveView[] compiled, List<CurveView> views) {
+            double constant = 0;
+            for (CurveView view : compiled) {
+                if (view instanceof Constant)
+                    constant += ((Constant) view).m_value;
+                else if (view instanceof Sum)
+                    constant += collect(((Sum) view).m_views, views);
+                else
+                    views.add(view);
+            }
+            return constant;
+        }
+    }
+
+    private static final class Product extends CurveView {
+        private final CurveView m_first;
+        private final CurveView m_second;
+
+        Product(CurveView first, CurveView second) {
+            m_first = first;
+            m_second = second;
+        }
+
+        public double getValue(double time) {
+            return m_first.getValue(time) * m_second.getValue(time);
+        }
+
+        public double getDerivative(double time) {
+            return m_first.getDerivative(time) * m_second.getValue(time) + m_first.getValue(time) * m_second.getDerivative(time);
+        }
+
+        public void evaluate(double time, MotionSample out) {
+            m_first.evaluate(time, out);
+            double f = out.getValue(), df = out.getDerivative(), ddf = out.getSecondDerivative();
+            m_second.evaluate(time, out);
+            double g = out.getValue(), dg = out.getDerivative(), ddg = out.getSecondDerivative();
+            out.set(f * g, df * g + f * dg, ddf * g + 2 * df * dg + f * ddg);
+        }
+
+        public CurveView compile() {
+            CurveView first = m_first.compile();
+            CurveView second = m_second.compile();
+            if (first instanceof Constant)
+                return ScaleOffset.scale(second, ((Constant) first).m_value, 0);
+            if (second instanceof Constant)
+                return ScaleOffset.scale(first, ((Constant) second).m_value, 0);
+            return new Product(first, second);
+        }
+    }
+
+    private static final class Compose extends CurveView {
+        private final CurveView m_outer;
+        private final CurveView m_inner;
+
+        Compose(CurveView outer, CurveView inner) {
+            m_outer = outer;
+            m_inner = inner;
+        }
+
+        public double getValue(double time) {
+            return m_outer.getValue(m_inner.getValue(time));
+        }
+
+        public double getDerivative(double time) {
+            return m_outer.getDerivative(m_inner.getValue(time)) * m_inner.getDerivative(time);
+        }
+
+        public void evaluate(double time, MotionSample out) {
+            m_inner.evaluate(time, out);
+            double dg = out.getDerivative(), ddg = out.getSecondDerivative();
+            m_outer.evaluate(out.getValue(), out);
+            out.set(out.getValue(), out.getDerivative() * dg, out.getSecondDerivative() * dg * dg + out.getDerivative() * ddg);
+        }
+
+        public CurveView compile() {
+            CurveView outer = m_outer.compile();
+            CurveView inner = m_inner.compile();
+            if (inner instanceof Constant)
+                return new Constant(outer.getValue(((Constant) inner).m_value));
+            if (outer instanceof Constant)
+                return outer;
+            if (inner instanceof Term && ((Term) inner).m_curve == null) {  // an affine inner view is a time warp
+                Term affine = (Term) inner;
+                return TimeWarp.warp(outer, affine.m_valueScale * affine.m_timeScale, affine.m_valueScale * affine.m_timeOffset + affine.m_valueOffset);
+            }
+            if (outer instanceof Term && ((Term) outer).m_curve == null) {  // an affine outer view is a scale
+                Term affine = (Term) outer;
+                return ScaleOffset.scale(inner, affine.m_valueScale * affine.m_timeScale, affine.m_valueScale * affine.m_timeOffset + affine.m_valueOffset);
+            }
+            return new Compose(outer, inner);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package org.team2471.frc.lib.motion_profiling;
+
+/**
+ * Counts the work done inverting the x cubic of weighted-tangent segments, so the worst case cost of an evaluation
+ * can be watched from a control loop.  Counters are plain fields and should only be read by the thread that owns the
+ * cursor being measured.
+ */
+public final class InversionStatistics {
+    private long m_inversions;
+    private long m_iterations;
+    private long m_bisections;
+    private long m_iterationLimitsReached;
+    private int m_maxIterations;
+
+    /** number of x inversions performed */
+    public long getInversions() {
+        return m_inversions;
+    }
+
+    /** total Newton or bisection steps over all inversions */
+    public long getIterations() {
+        return m_iterations;
+    }
+
+    /** steps where the Newton step left the bracket and bisection was used instead */
+    public long getBisections() {
+        return m_bisections;
+    }
+
+    /** inversions which stopped at the iteration limit before reaching the tolerance */
+    public long getIterationLimitsReached() {
+        return m_iterationLimitsReached;
+    }
+
+    /** the most steps any single inversion has taken */
+    public int getMaxIterations() {
+        return m_maxIterations;
+    }
+
+    public double getAverageIterations() {
+        return m_inversions > 0 ? (double) m_iterations / m_inversions : 0;
+    }
+
+    public void reset() {
+        m_inversions = 0;
+        m_iterations = 0;
+        m_bisections = 0;
+        m_iterationLimitsReached = 0;
+        m_maxIterations = 0;
+    }
+
+    void record(int iterations, int bisections, boolean limitReached) {
+        m_inversions++;
+        m_iterations += iterations;
+        m_bisections += bisections;
+        if (limitReached)
+            m_iterationLimitsReached++;
+        if (iterations > m_maxIterations)
+            m_maxIterations = iterations;
+    }
+
+    public String toString() {
+        return "inversions: " + m_inversions + " iterations: " + m_iterations + " bisections: " + m_bisections +
+                " max iterations: " + m_maxIterations + " limits reached: " + m_iterationLimitsReached;
+    }
+}
@@ -2,18 +2,25 @@ package org.team2471.frc.lib.motion_profiling;
 
 import org.team2471.frc.lib.vector.Vector2;
 
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
 public class MotionCurve {
-    private transient final double MAXFRAMEERROR = 0.003;
+    static final double MAXFRAMEERROR = 0.003;
     private MotionKey m_headKey;
     private transient MotionKey m_tailKey;
+    private transient TreeMap<Double, MotionKey> m_keyIndex;  // the last key at each time, rebuilt from the list when null
     private double m_defaultValue;
     private double m_minValue;
     private double m_maxValue;
-    private transient double m_lastValue;
-    private transient double m_lastDerivative;
-    private transient double m_lastTime;
-    private transient boolean m_bLastTimeValid;
-    private transient MotionKey m_lastAccessedKey;
+    private transient Cursor m_cursor;
+    private transient int m_revision;
+    private transient int m_editDepth;
+    private transient double m_editStartTime;
+    private transient double m_editEndTime;
+    private transient CompiledMotionCurve m_compiledCurve;  // cached for range queries, rebuilt when m_revision moves
+    private transient int m_compiledRevision;
     private ExtrapolationMethods m_preExtrapolation;
     private ExtrapolationMethods m_postExtrapolation;
     private boolean m_markBeginOrEndKeysToZeroSlope;
@@ -24,11 +31,9 @@ public class MotionCurve {
         m_defaultValue = 0;
         m_minValue = -Double.MAX_VALUE;
         m_maxValue = Double.MAX_VALUE;
-        m_lastValue = 0;
-        m_lastDerivative = 0;
-        m_lastTime = 0;
-        m_bLastTimeValid = false;
-        m_lastAccessedKey = null;
+        m_cursor = new Cursor(this);
+        m_revision = 0;
+        m_editDepth = 0;
         m_preExtrapolation = ExtrapolationMethods.EXTRAPOLATION_CONSTANT;
         m_postExtrapolation = ExtrapolationMethods.EXTRAPOLATION_CONSTANT;
         m_markBeginOrEndKeysToZeroSlope = true;
@@ -40,6 +45,8 @@ public class MotionCurve {
 
     public void setHeadKey(MotionKey headKey) {
         this.m_headKey = headKey;
+        m_keyIndex = null;
+        m_revision++;
     }
 
     public MotionKey getTailKey() {
@@ -48,6 +55,7 @@ public class MotionCurve {
 
     public void setTailKey(MotionKey tailKey) {
         this.m_tailKey = tailKey;
+        m_revision++;
     }
 
     public double getDefaultValue() {
@@ -56,6 +64,7 @@ public class MotionCurve {
 
     public void setDefaultValue(double defaultValue) {
         this.m_defaultValue = defaultValue;
+        m_revision++;
     }
 
     public double getMinValue() {
@@ -75,17 +84,120 @@ public class MotionCurve {
     }
 
     public MotionKey getLastAccessedKey() {
-        return m_lastAccessedKey;
+        return m_cursor.m_lastAccessedKey;
+    }
+
+    public void setLastAccessedKey(MotionKey lastAccessedKey) {
+        m_cursor.m_lastAccessedKey = lastAccessedKey;
+        m_cursor.m_bLastTimeValid = false;
+    }
+
+    public ExtrapolationMethods getPreExtrapolation() {
+        return m_preExtrapolation;
+    }
+
+    public void setPreExtrapolation(ExtrapolationMethods preExtrapolation) {
+        this.m_preExtrapolation = preExtrapolation;
+        m_revision++;
     }
 
-    public void setLastAccessedKey(MotionKey m_lastAccessedKey) {
-        this.m_lastAccessedKey = m_lastAccessedKey;
+    public ExtrapolationMethods getPostExtrapolation() {
+        return m_postExtrapolation;
+    }
+
+    public void setPostExtrapolation(ExtrapolationMethods postExtrapolation) {
+        this.m_postExtrapolation = postExtrapolation;
+        m_revision++;
     }
 
     public double getLength() {
         return getTailKey() != null ? getTailKey().getTime() : 0;
     }
 
+    /**
+     * Takes an immutable snapshot of the curve in flat arrays for fast random access sampling.
+     * Later edits to this curve are not reflected in the returned snapshot.
+     */
+    public CompiledMotionCurve compile() {
+        return new CompiledMotionCurve(this);
+    }
+
+    /**
+     * Samples the curve onto a uniform grid for constant time lookup, see {@link BakedMotionCurve}.  dt should be the
+     * period the curve will be sampled at; it is halved as needed so lookups stay within maxError of getValue.
+     */
+    public BakedMotionCurve bakeUniform(double dt, double maxError) {
+        return new BakedMotionCurve(this, dt, maxError);
+    }
+
+    /**
+     * Packs the curve into floats for holding many curves in little memory, see {@link PackedMotionCurve}.
+     */
+    public PackedMotionCurve pack() {
+        return new PackedMotionCurve(this);
+    }
+
+    /**
+     * Ranks the keys by how much detail they add, for sending or drawing the curve at a given error, see
+     * {@link MultiResolutionMotionCurve}.
+     */
+    public MultiResolutionMotionCurve toMultiResolution() {
+        return new MultiResolutionMotionCurve(this);
+    }
+
+    /**
+     * A copy of this curve passing through the same values, slowed down wherever its slope would exceed maxVelocity or
+     * its second derivative maxAcceleration, see {@link MotionCurveRetimer}.  It is never sped up, so a curve already
+     * within the limits comes back unchanged.  A curve that turns vertical cannot be slowed to a finite slope and throws
+     * IllegalArgumentException, and IllegalStateException is thrown rather than return a copy beyond the limits.
+     */
+    public MotionCurve retime(double maxVelocity, double maxAcceleration) {
+        return MotionCurveRetimer.retime(this, maxVelocity, maxAcceleration);
+    }
+
+    /**
+     * The largest value between t0 and t1, see {@link CompiledMotionCurve#maxValue}.
+     */
+    public double maxValue(double t0, double t1) {
+        return getCompiledCurve().maxValue(t0, t1);
+    }
+
+    /**
+     * The smallest value between t0 and t1, see {@link CompiledMotionCurve#minValue}.
+     */
+    public double minValue(double t0, double t1) {
+        return getCompiledCurve().minValue(t0, t1);
+    }
+
+    /**
+     * The largest magnitude of the slope between t0 and t1, see {@link CompiledMotionCurve#maxAbsDerivative}.
+     */
+    public double maxAbsDerivative(double t0, double t1) {
+        return getCompiledCurve().maxAbsDerivative(t0, t1);
+    }
+
+    /**
+     * The first time at or after fromTime at which the curve reaches value, or NaN if it never does, see
+     * {@link CompiledMotionCurve#timeOfValue}.
+     */
+    public double timeOfValue(double value, double fromTime) {
+        return getCompiledCurve().timeOfValue(value, fromTime);
+    }
+
+    // bumped by every edit, so derived data can tell when it has to be rebuilt
+    int getRevision() {
+        return m_revision;
+    }
+
+    // a compiled snapshot shared by the queries until the curve is edited
+    CompiledMotionCurve getCompiledCurve() {
+        if (m_compiledCurve == null || m_compiledRevision != m_revision) {
+            m_compiledCurve = compile();
+            m_compiledRevision = m_revision;
+        }
+        return m_compiledCurve;
+    }
+
     public void removeAllPoints() {
         MotionKey nextKey;
         for (MotionKey pKey = m_headKey; pKey != null; pKey = nextKey) {
@@ -95,9 +207,13 @@ public class MotionCurve {
         }
         m_headKey = null;
         m_tailKey = null;
+        m_keyIndex = null;
+        setLastAccessedKey(null);
+        m_revision++;
     }
 
     public void removeKey(MotionKey key) {
+        unindexKey(key, key.getTime());
         if (key.getPrevKey()==null)
             m_headKey = key.getNextKey();
         else {
@@ -111,6 +227,10 @@ public class MotionCurve {
             key.getNextKey().setPrevKey(key.getPrevKey());
             key.getNextKey().onPositionChanged();
         }
+
+        if (getLastAccessedKey() == key)
+            setLastAccessedKey(null);
+        m_revision++;
     }
 
     private void insertKeyBefore(MotionKey atKey, MotionKey newKey) {
@@ -122,8 +242,8 @@ public class MotionCurve {
                 m_tailKey = m_headKey;
         }
 
-        m_lastAccessedKey = newKey;
-        m_bLastTimeValid = false;
+        setLastAccessedKey(newKey);
+        m_revision++;
 
         if (atKey != null) {
             if (newKey.getTime() > atKey.getTime()) {
@@ -131,6 +251,7 @@ public class MotionCurve {
             }
             newKey.insertBefore(atKey);
         }
+        indexKey(newKey);
 
         newKey.onPositionChanged();
     }
@@ -144,13 +265,14 @@ public class MotionCurve {
                 m_headKey = m_tailKey;
         }
 
-        m_lastAccessedKey = newKey;
-        m_bLastTimeValid = false;
+        setLastAccessedKey(newKey);
+        m_revision++;
 
         if (atKey != null) {
             assert (newKey.getTime() >= atKey.getTime());
             newKey.insertAfter(atKey);
         }
+        indexKey(newKey);
 
         newKey.onPositionChanged();
     }
@@ -160,70 +282,132 @@ public class MotionCurve {
         insertKeyAfter(m_tailKey, newKey);
     }
 
-    public void onKeyPositionChanged(MotionKey key) {
-        m_bLastTimeValid = false;
+    // keys sharing a time are indexed by the last of them, so random access finds the same key walking the list would
+    private TreeMap<Double, MotionKey> getKeyIndex() {
+        if (m_keyIndex == null) {
+            m_keyIndex = new TreeMap<>();
+            for (MotionKey key = m_headKey; key != null; key = key.getNextKey())
+                m_keyIndex.put(key.getTime(), key);
+        }
+        return m_keyIndex;
     }
 
-    private MotionKey findClosestKey(double time) {
-        MotionKey pKey;
-        if (m_lastAccessedKey != null)
-            pKey = m_lastAccessedKey;
+    private void indexKey(MotionKey key) {
+        if (m_keyIndex != null && (key.getNextKey() == null || key.getNextKey().getTime() != key.getTime()))
+            m_keyIndex.put(key.getTime(), key);
+    }
+
+    private void unindexKey(MotionKey key, double time) {
+        if (m_keyIndex == null || m_keyIndex.get(time) != key)
+            return;
+        if (key.getPrevKey() != null && key.getPrevKey().getTime() == time)
+            m_keyIndex.put(time, key.getPrevKey());
         else
-            pKey = m_headKey;
+            m_keyIndex.remove(time);
+    }
 
-        if (pKey == null)
-            return null;
+    void onKeyTimeChanged(MotionKey key, double oldTime) {
+        if (key != m_headKey && key.getPrevKey() == null)
+            return;  // not linked into the curve yet
+        unindexKey(key, oldTime);
+        indexKey(key);
+    }
 
-        if (pKey.getTime() != time) {
-            if (pKey.getTime() < time) {
-                MotionKey pNextKey = pKey.getNextKey();
-                while (pNextKey != null) {
-                    if (pNextKey.getTime() > time)
-                        break;
-                    pKey = pNextKey;
-                    pNextKey = pKey.getNextKey();
-                }
-            } else {
-                MotionKey pPrevKey = pKey.getPrevKey();
-                while (pPrevKey != null) {
-                    pKey = pPrevKey;
-                    if (pKey.getTime() <= time)
-                        break;
-                    pPrevKey = pKey.getPrevKey();
-                }
-            }
+    public void onKeyPositionChanged(MotionKey key) {
+        m_revision++;
+
+        if (m_editDepth > 0) {
+            m_editStartTime = Math.min(m_editStartTime, key.getTime());
+            m_editEndTime = Math.max(m_editEndTime, key.getTime());
         }
+    }
 
-        m_lastAccessedKey = pKey;
-        m_bLastTimeValid = false;
+    /**
+     * Runs edits as one batch: keys changed inside the block do not dirty their neighbours one at a time, instead the
+     * tangents and coefficients of the whole span that changed are recomputed once when the block returns.  The curve
+     * should not be sampled until the edit is finished.  Edits may be nested.
+     */
+    public void edit(Consumer<MotionCurve> edits) {
+        beginEdit();
+        try {
+            edits.accept(this);
+        } finally {
+            endEdit();
+        }
+    }
 
-        return pKey;
+    public void beginEdit() {
+        if (m_editDepth++ == 0) {
+            m_editStartTime = Double.POSITIVE_INFINITY;
+            m_editEndTime = Double.NEGATIVE_INFINITY;
+        }
     }
 
-    public MotionKey getKey(double time) {
-        MotionKey pKey;
-        if (m_lastAccessedKey != null)
-            pKey = m_lastAccessedKey;
-        else
-            pKey = m_headKey;
+    public void endEdit() {
+        if (m_editDepth == 0 || --m_editDepth > 0)
+            return;
+
+        if (m_headKey == null || m_editStartTime > m_editEndTime)
+            return;
+
+        // plateau tangents look two keys away, so widen the span by two keys on each side
+        MotionKey firstKey = findClosestKey(m_editStartTime);
+        for (int i = 0; i < 2 && firstKey.getPrevKey() != null; i++)
+            firstKey = firstKey.getPrevKey();
+
+        MotionKey lastKey = firstKey;
+        while (lastKey.getNextKey() != null && lastKey.getTime() <= m_editEndTime)
+            lastKey = lastKey.getNextKey();
+        for (int i = 0; i < 2 && lastKey.getNextKey() != null; i++)
+            lastKey = lastKey.getNextKey();
+
+        // spline slopes depend on their whole run, so take in the runs the span ends in, and the key before the first
+        // run whose segment ends on it
+        if (firstKey.isSplineKey()) {
+            while (firstKey.getPrevKey() != null && firstKey.getPrevKey().isSplineKey())
+                firstKey = firstKey.getPrevKey();
+            if (firstKey.getPrevKey() != null)
+                firstKey = firstKey.getPrevKey();
+        }
+        while (lastKey.isSplineKey() && lastKey.getNextKey() != null && lastKey.getNextKey().isSplineKey())
+            lastKey = lastKey.getNextKey();
+
+        MotionKey endKey = lastKey.getNextKey();
+        for (MotionKey key = firstKey; key != endKey; key = key.getNextKey()) {
+            key.setTangentsDirty(true);
+            key.setCoefficientsDirty(true);
+            key.setSplineDirty();
+        }
+
+        for (MotionKey key = firstKey; key != endKey; key = key.getNextKey()) {
+            key.getPrevTangent();
+            if (key.getNextKey() != null)
+                key.getYCoefficients();
+        }
+    }
 
-        if (pKey == null)
+    public boolean isEditing() {
+        return m_editDepth > 0;
+    }
+
+    private MotionKey findClosestKey(double time) {
+        if (m_headKey == null)
             return null;
 
-        if (pKey.getTime() != time) {
-            if (pKey.getTime() < time) {
-                for (pKey = pKey.getNextKey(); pKey != null && pKey.getTime() != time; pKey = pKey.getNextKey())
-                    ;
-            } else {
-                for (pKey = pKey.getPrevKey(); pKey != null && pKey.getTime() != time; pKey = pKey.getPrevKey())
-                    ;
-            }
-        }
+        Map.Entry<Double, MotionKey> entry = getKeyIndex().floorEntry(time);
+        MotionKey pKey = entry != null ? entry.getValue() : m_headKey;
+        setLastAccessedKey(pKey);
 
-        if (pKey != null && m_lastAccessedKey != pKey) {
-            m_lastAccessedKey = pKey;
-            m_bLastTimeValid = false;
-        }
+        return pKey;
+    }
+
+    public MotionKey getKey(double time) {
+        if (m_headKey == null)
+            return null;
+
+        MotionKey pKey = getKeyIndex().get(time);
+        if (pKey != null && getLastAccessedKey() != pKey)
+            setLastAccessedKey(pKey);
 
         return pKey;
     }
@@ -267,8 +451,7 @@ public class MotionCurve {
             pNewKey.setPrevSlopeMethod(MotionKey.SlopeMethod.SLOPE_SMOOTH);
         }
 
-        m_lastAccessedKey = pNewKey;
-        m_bLastTimeValid = false;
+        setLastAccessedKey(pNewKey);
 
         return pNewKey;
     }
@@ -292,169 +475,120 @@ public class MotionCurve {
         return motionKey;
     }
 
-    public double getValue(double time) {
-        if (getHeadKey() == null)
-            return getDefaultValue();
-
-        // post-extrapolation
-        if (time > getTailKey().getTime()) {
-            switch (m_postExtrapolation) {
-                case EXTRAPOLATION_CONSTANT:
-                    return getTailKey().getValue();
-                case EXTRAPOLATION_LINEAR: {
-                    Vector2 v2Slope = getTailKey().getPrevTangent();
-                    return getTailKey().getValue() + (v2Slope.getY() / v2Slope.getX()) * (time - getTailKey().getTime());
-                }
-                case EXTRAPOLATION_CYCLE: {
-                    double tStartdouble = getHeadKey().getTime();
-                    double tLength = getTailKey().getTime() - tStartdouble;
-                    if (tLength != 0) {
-                        double tdoubleSinceStart = time - tStartdouble;
-                        double tdoubleInto = tdoubleSinceStart % tLength;
-                        double tNewdouble = tStartdouble - tdoubleInto;
-                        return getValue(tNewdouble);
-                    } else
-                        return getValue(tStartdouble);
-                }
-                case EXTRAPOLATION_CYCLE_RELATIVE: {
-                    double tStartdouble = getHeadKey().getTime();
-                    double tLength = getTailKey().getTime() - tStartdouble;
-                    if (tLength != 0) {
-                        double tdoubleSinceStart = time - tStartdouble;
-                        double tdoubleInto = tdoubleSinceStart % tLength;
-                        double tNewdouble = tStartdouble + tdoubleInto;
-
-                        int nCount = (int) (tdoubleSinceStart / tLength);
-                        double fHeight = getTailKey().getValue() - getHeadKey().getValue();
-                        return fHeight * nCount + getValue(tNewdouble);
-                    } else
-                        return getValue(tStartdouble);
-                }
-                case EXTRAPOLATION_OSCILLATE: {
-                    double tStartdouble = getHeadKey().getTime();
-                    double tLength = getTailKey().getTime() - tStartdouble;
-                    if (tLength != 0) {
-                        double tdoubleSinceStart = time - tStartdouble;
-                        double tdoubleInto = tdoubleSinceStart % tLength;
-                        double tNewdouble = tStartdouble + tdoubleInto;
-
-                        int nCount = (int) (tdoubleSinceStart / tLength);
-                        if (nCount % 2 != 0)
-                            return getValue(tLength - tNewdouble);
-                        else
-                            return getValue(tNewdouble);
-                    } else
-                        return getValue(tStartdouble);
-                }
-            }
+    /**
+     * Builds a curve from samples sorted by time in one pass, computing every tangent once.  With no slope methods
+     * the keys get the same slopes storeValue would give them, a single slope method is used for every key, or one
+     * slope method per key may be given.
+     */
+    public static MotionCurve fromSamples(double[] times, double[] values, MotionKey.SlopeMethod... slopeMethods) {
+        checkSamples(times, values);
+        if (slopeMethods.length > 1 && slopeMethods.length != times.length)
+            throw new IllegalArgumentException("Expected one slope method or one per sample, got " + slopeMethods.length);
+
+        MotionCurve motionCurve = new MotionCurve();
+        motionCurve.beginEdit();
+        for (int i = 0; i < times.length; i++) {
+            MotionKey key = motionCurve.appendKey(times[i], values[i]);
+
+            MotionKey.SlopeMethod slopeMethod;
+            if (slopeMethods.length == 0) {
+                boolean isEnd = i == 0 || i == times.length - 1;
+                slopeMethod = isEnd && key.getMarkbeginOrEndKeysToZeroSlope() ? MotionKey.SlopeMethod.SLOPE_FLAT : MotionKey.SlopeMethod.SLOPE_SMOOTH;
+            } else
+                slopeMethod = slopeMethods.length == 1 ? slopeMethods[0] : slopeMethods[i];
+            key.setPrevSlopeMethod(slopeMethod);
+            key.setNextSlopeMethod(slopeMethod);
         }
+        motionCurve.endEdit();
+        return motionCurve;
+    }
 
-        // pre-extrapolation
-        if (time < getHeadKey().getTime()) {
-            switch (m_preExtrapolation) {
-                case EXTRAPOLATION_CONSTANT:
-                    return getHeadKey().getValue();
-                case EXTRAPOLATION_LINEAR: {
-                    Vector2 v2Slope = getHeadKey().getNextTangent();
-                    return getHeadKey().getValue() + (v2Slope.getY() / v2Slope.getX()) * (time - getHeadKey().getTime());
-                }
-                case EXTRAPOLATION_CYCLE: {
-                    double tStartdouble = getHeadKey().getTime();
-                    double tEnddouble = getTailKey().getTime();
-                    double tLength = tEnddouble - tStartdouble;
-                    if (tLength != 0) {
-                        double tdoubleSinceEnd = tEnddouble - time;
-                        double tdoubleInto = tdoubleSinceEnd % tLength;
-                        double tNewdouble = tEnddouble - tdoubleInto;
-                        return getValue(tNewdouble);
-                    } else
-                        return getValue(tStartdouble);
-                }
-                case EXTRAPOLATION_CYCLE_RELATIVE: {
-                    double tStartdouble = getHeadKey().getTime();
-                    double tEnddouble = getTailKey().getTime();
-                    double tLength = tEnddouble - tStartdouble;
-                    if (tLength != 0) {
-                        double tdoubleSinceEnd = tEnddouble - time;
-                        double tdoubleInto = tdoubleSinceEnd % tLength;
-                        double tNewdouble = tEnddouble - tdoubleInto;
-
-                        int nCount = (int) (tdoubleSinceEnd / tLength);
-                        double fHeight = getHeadKey().getValue() - getTailKey().getValue();
-                        return fHeight * nCount + getValue(tNewdouble);
-                    } else
-                        return getValue(tStartdouble);
-                }
-                case EXTRAPOLATION_OSCILLATE: {
-                    double tStartdouble = getHeadKey().getTime();
-                    double tEnddouble = getTailKey().getTime();
-                    double tLength = tEnddouble - tStartdouble;
-                    if (tLength != 0) {
-                        double tdoubleSinceEnd = tEnddouble - time;
-                        double tdoubleInto = tdoubleSinceEnd % tLength;
-                        double tNewdouble = tEnddouble - tdoubleInto;
-
-                        int nCount = (int) (tdoubleSinceEnd / tLength);
-                        if (nCount % 2 != 0)
-                            return getValue(tLength - tNewdouble);
-                        else
-                            return getValue(tNewdouble);
-                    } else
-                        return getValue(tStartdouble);
-                }
-            }
+    /**
+     * Builds a curve from samples sorted by time in one pass, with manual tangents as given to
+     * storeValueSlopeAndMagnitude.  magnitudes may be null for the default magnitude of 1.
+     */
+    public static MotionCurve fromSamples(double[] times, double[] values, double[] slopes, double[] magnitudes) {
+        checkSamples(times, values);
+        if (slopes.length != times.length || (magnitudes != null && magnitudes.length != times.length))
+            throw new IllegalArgumentException("Expected one slope and magnitude per sample");
+
+        MotionCurve motionCurve = new MotionCurve();
+        motionCurve.beginEdit();
+        for (int i = 0; i < times.length; i++) {
+            MotionKey key = motionCurve.appendKey(times[i], values[i]);
+            double magnitude = magnitudes != null ? magnitudes[i] : 1.0;
+            key.setNextAngleAndMagnitude(new Vector2(Math.atan(slopes[i]), magnitude));
+            key.setPrevAngleAndMagnitude(new Vector2(Math.atan(slopes[i]), magnitude));
+            key.setMarkBeginOrEndKeysToZeroSlope(false);
         }
+        motionCurve.endEdit();
+        return motionCurve;
+    }
 
-        if (getLastAccessedKey() != null) {
-            if (m_bLastTimeValid && time == m_lastTime)
-                return m_lastValue; // if same as last time
-        } else // if last key is not valid start from the beginning
-        {
-            setLastAccessedKey(getHeadKey());
+    private static void checkSamples(double[] times, double[] values) {
+        if (times.length != values.length)
+            throw new IllegalArgumentException("Expected as many values as times, got " + values.length + " and " + times.length);
+        for (int i = 1; i < times.length; i++) {
+            if (times[i] <= times[i - 1])
+                throw new IllegalArgumentException("Sample times must be increasing, time " + i + " is " + times[i]);
         }
+    }
 
-        if (getLastAccessedKey().getTime() <= time) {
-            for (MotionKey key = getLastAccessedKey(); key != null; key = key.getNextKey()) {
-                MotionKey nextKey = key.getNextKey();
-                if (key.getTime() == time) {
-                    setLastAccessedKey(key);
-                    m_lastValue = key.getValue();
-                    break;
-                } else if (nextKey.getTime() == time) {
-                    setLastAccessedKey(nextKey);
-                    m_lastValue = nextKey.getValue();
-                    break;
-                } else if (nextKey.getTime() > time) {
-                    setLastAccessedKey(key);
-                    m_lastValue = InterpolateValue(time, key);
-                    break;
-                }
-            }
-        } else {
-            for (MotionKey key = getLastAccessedKey().getPrevKey(); key != null; key = key.getPrevKey()) {
-                MotionKey nextKey = key.getNextKey();
-                if (key.getTime() == time) {
-                    setLastAccessedKey(key);
-                    m_lastValue = key.getValue();
-                    break;
-                } else if (nextKey.getTime() == time) {
-                    setLastAccessedKey(nextKey);
-                    m_lastValue = nextKey.getValue();
-                    break;
-                } else if (key.getTime() < time) {
-                    setLastAccessedKey(key);
-                    m_lastValue = InterpolateValue(time, key);
-                    break;
-                }
+    // links a new key after the tail without searching, the caller guarantees time is past the tail
+    MotionKey appendKey(double time, double value) {
+        MotionKey key = new MotionKey();
+        key.setMotionCurve(this);
+        key.getTimeAndValue().set(time, value);
+        addKey(key);
+        return key;
+    }
+
+    public double getValue(double time) {
+        return m_cursor.getValue(time);
+    }
+
+    public double getDerivative(double time) {
+        return m_cursor.getDerivative(time);
+    }
+
+    /**
+     * Fills out with the value, slope and curvature of the curve at time from a single key search and x inversion.
+     */
+    public void evaluate(double time, MotionSample out) {
+        m_cursor.evaluate(time, out);
+    }
+
+    /**
+     * Samples the curve at n evenly spaced times starting at t0, see {@link Cursor#sample}.
+     */
+    public void sample(double t0, double dt, int n, double[] values, double[] derivatives) {
+        m_cursor.sample(t0, dt, n, values, derivatives);
+    }
+
+    /**
+     * Work done inverting weighted-tangent segments by getValue, getDerivative, evaluate and sample on this curve.
+     */
+    public InversionStatistics getInversionStatistics() {
+        return m_cursor.getInversionStatistics();
+    }
+
+    /**
+     * Creates a cursor with its own search state, so several callers can sample this curve at once without
+     * disturbing each other's locality cache.  All keys are brought up to date first, which makes sampling through
+     * the cursor read only.  The curve must not be edited while other threads are sampling it.
+     */
+    public Cursor newCursor() {
+        for (MotionKey key = m_headKey; key != null; key = key.getNextKey()) {
+            key.getPrevTangent();
+            if (key.getNextKey() != null) {
+                key.getYCoefficients();
+                key.getXCoefficients();
             }
         }
-
-        m_lastTime = time;
-        m_bLastTimeValid = true;
-        return m_lastValue;
+        return new Cursor(this);
     }
 
-    private double InterpolateValue(double time, MotionKey pKey) {
+    private static double InterpolateValue(double time, MotionKey pKey, InversionStatistics statistics) {
         MotionKey pNextKey = pKey.getNextKey();
 
         MotionKey.SlopeMethod nextSlopeMethod = pKey.getNextSlopeMethod();
@@ -468,170 +602,420 @@ public class MotionCurve {
             return pKey.getValue() + (time - pKey.getTime())
                     / (pNextKey.getTime() - pKey.getTime())
                     * (pNextKey.getValue() - pKey.getValue());
+        } else
+            return pKey.getYCoefficients().evaluate(solveForT(time, pKey, statistics));
+    }
+
+    private static double derivative(double time, MotionKey pKey, InversionStatistics statistics) {
+        MotionKey pNextKey = pKey.getNextKey();
+
+        MotionKey.SlopeMethod nextSlopeMethod = pKey.getNextSlopeMethod();
+        MotionKey.SlopeMethod prevSlopeMethod = pNextKey.getPrevSlopeMethod();
+
+        if (nextSlopeMethod == MotionKey.SlopeMethod.SLOPE_STEPPED)
+            return 0;
+        else if (nextSlopeMethod == MotionKey.SlopeMethod.SLOPE_STEPPED_NEXT)
+            return 0;
+        else if (nextSlopeMethod == MotionKey.SlopeMethod.SLOPE_LINEAR && prevSlopeMethod == MotionKey.SlopeMethod.SLOPE_LINEAR) {
+            return (pNextKey.getValue() - pKey.getValue()) / (pNextKey.getTime() - pKey.getTime());
         } else {
-            double evalx = time;
-            double pointax = pKey.getTime();
-            double pointbx = pNextKey.getTime();
-            double xspan = pointbx - pointax;
-            double guesst = (evalx - pointax) / xspan;
-
-            // if the weights are default, then the x cubic is linear and there is no need to evaluate it
-            if (pKey.getNextMagnitude() == 1.0f && pNextKey.getPrevMagnitude() == 1.0f)
-                return pKey.getYCoefficients().evaluate(guesst);
-
-            // Spline - non default tangents means that we need a second parametric cubic for x as a function of t
-            double diffx = evalx - pKey.getXCoefficients().evaluate(guesst);
-            double error = Math.abs(diffx);
-            double maxerror = MAXFRAMEERROR / 30.0f;
-
-            if (error > maxerror) {
-                double positiveError = Double.MAX_VALUE;
-                double negativeError = -Double.MAX_VALUE;
-
-                if (diffx > 0)
-                    positiveError = diffx;
-                else
-                    negativeError = diffx;
-
-                while (error > maxerror) {
-                    guesst = guesst + diffx / pKey.getXCoefficients().derivative(guesst);
-                    diffx = evalx - pKey.getXCoefficients().evaluate(guesst);
-                    error = Math.abs(diffx);
-
-                    if ((diffx > 0 && diffx > positiveError) || (diffx < 0 && diffx < negativeError)) {  // NOT CONVERGING, PROBABLY BOGUS CHANNEL DATA, WALK USING BUMP FD
-                        assert (false);
-                        maxerror = 1.0f / 100.0f;  // DON'T BE AS ACCURATE BECAUSE THIS IS MUCH SLOWER
-                        int steps = (int) (xspan / maxerror);
-                        steps = Math.min(steps, 1000);
-                        double deltat = 1.0f / steps;
-                        pKey.getXCoefficients().initFD(steps);
-                        int i;
-                        diffx = error;
-                        for (i = 0, guesst = 0.0; diffx > maxerror && i < steps; guesst += deltat, i++)
-                            diffx = Math.abs(evalx - pKey.getXCoefficients().bumpFD());
-                        break;
+            double guesst = solveForT(time, pKey, statistics);
+
+            // if the tangents advance time evenly, then the x cubic is linear and there is no need to evaluate it
+            if (pKey.isNextSegmentXLinear())
+                return pKey.getYCoefficients().derivative(guesst) / (pNextKey.getTime() - pKey.getTime());
+
+            return pKey.getYCoefficients().derivative(guesst) / pKey.getXCoefficients().derivative(guesst);
+        }
+    }
+
+    // value and time derivatives inside the segment starting at pKey
+    private static void evaluateSegment(double time, MotionKey pKey, MotionSample out, InversionStatistics statistics) {
+        MotionKey pNextKey = pKey.getNextKey();
+
+        MotionKey.SlopeMethod nextSlopeMethod = pKey.getNextSlopeMethod();
+        MotionKey.SlopeMethod prevSlopeMethod = pNextKey.getPrevSlopeMethod();
+
+        if (nextSlopeMethod == MotionKey.SlopeMethod.SLOPE_STEPPED)
+            out.set(pKey.getValue(), 0, 0);
+        else if (nextSlopeMethod == MotionKey.SlopeMethod.SLOPE_STEPPED_NEXT)
+            out.set(pNextKey.getValue(), 0, 0);
+        else if (nextSlopeMethod == MotionKey.SlopeMethod.SLOPE_LINEAR && prevSlopeMethod == MotionKey.SlopeMethod.SLOPE_LINEAR) {
+            double slope = (pNextKey.getValue() - pKey.getValue()) / (pNextKey.getTime() - pKey.getTime());
+            out.set(pKey.getValue() + (time - pKey.getTime()) * slope, slope, 0);
+        } else {
+            double guesst = solveForT(time, pKey, statistics);
+            CubicCoefficients1D yCoefficients = pKey.getYCoefficients();
+            double value = yCoefficients.evaluate(guesst);
+            double dy = yCoefficients.derivative(guesst);
+            double ddy = yCoefficients.secondDerivative(guesst);
+
+            if (pKey.isNextSegmentXLinear()) {
+                double xspan = pNextKey.getTime() - pKey.getTime();
+                out.set(value, dy / xspan, ddy / (xspan * xspan));
+            } else {
+                CubicCoefficients1D xCoefficients = pKey.getXCoefficients();
+                double dx = xCoefficients.derivative(guesst);
+                double ddx = xCoefficients.secondDerivative(guesst);
+                out.set(value, dy / dx, (ddy * dx - dy * ddx) / (dx * dx * dx));
+            }
+        }
+    }
+
+    // finds the parametric t of the segment starting at pKey which lands on time, without touching any shared state
+    private static double solveForT(double time, MotionKey pKey, InversionStatistics statistics) {
+        MotionKey pNextKey = pKey.getNextKey();
+
+        double pointax = pKey.getTime();
+        double pointbx = pNextKey.getTime();
+        double guesst = (time - pointax) / (pointbx - pointax);
+
+        // if the tangents advance time evenly, then the x cubic is linear and there is no need to evaluate it
+        if (pKey.isNextSegmentXLinear())
+            return guesst;
+
+        // Spline - non default tangents means that we need a second parametric cubic for x as a function of t
+        return pKey.getXCoefficients().solve(time, guesst, MAXFRAMEERROR / 30.0f, statistics);
+    }
+
+    static boolean isPeriodic(ExtrapolationMethods method) {
+        return method == ExtrapolationMethods.EXTRAPOLATION_CYCLE || method == ExtrapolationMethods.EXTRAPOLATION_CYCLE_RELATIVE
+                || method == ExtrapolationMethods.EXTRAPOLATION_OSCILLATE;
+    }
+
+    // the number of whole periods time lies past the head, negative before it.  Cycle relative extrapolation offsets
+    // the value by this many times the change over a period, and oscillation runs backwards in the odd periods.
+    static double periodCount(double time, double headTime, double tailTime) {
+        return Math.floor((time - headTime) / (tailTime - headTime));
+    }
+
+    // maps a time outside the keys onto them for the periodic extrapolation methods, periods being from periodCount
+    static double periodicTime(ExtrapolationMethods method, double time, double headTime, double tailTime, double periods) {
+        double length = tailTime - headTime;
+        double timeInto = Math.min(Math.max(time - headTime - periods * length, 0), length);
+        if (method == ExtrapolationMethods.EXTRAPOLATION_OSCILLATE && periods % 2 != 0)
+            return tailTime - timeInto;
+        return headTime + timeInto;
+    }
+
+    /**
+     * Holds the search state used while sampling a {@link MotionCurve}: the last accessed key and the last value
+     * returned.  Each thread or coroutine that samples a shared curve should use its own cursor from
+     * {@link MotionCurve#newCursor()}.
+     */
+    public static final class Cursor {
+        private final MotionCurve m_motionCurve;
+        private MotionKey m_lastAccessedKey;
+        private double m_lastValue;
+        private double m_lastDerivative;
+        private double m_lastTime;
+        private boolean m_bLastTimeValid;
+        private int m_revision;
+        private final double[] m_fd = new double[7];
+        private final InversionStatistics m_inversionStatistics = new InversionStatistics();
+
+        private Cursor(MotionCurve motionCurve) {
+            m_motionCurve = motionCurve;
+            m_lastAccessedKey = null;
+            m_lastValue = 0;
+            m_lastDerivative = 0;
+            m_lastTime = 0;
+            m_bLastTimeValid = false;
+            m_revision = motionCurve.m_revision;
+        }
+
+        public MotionCurve getMotionCurve() {
+            return m_motionCurve;
+        }
+
+        /**
+         * Work done by this cursor inverting weighted-tangent segments.
+         */
+        public InversionStatistics getInversionStatistics() {
+            return m_inversionStatistics;
+        }
+
+        // drops anything cached from before the curve was last edited
+        private void validate() {
+            if (m_revision != m_motionCurve.m_revision) {
+                m_revision = m_motionCurve.m_revision;
+                m_bLastTimeValid = false;
+                if (this != m_motionCurve.m_cursor)  // the curve keeps its own cursor pointing at a live key
+                    m_lastAccessedKey = null;
+            }
+        }
+
+        public double getValue(double time) {
+            validate();
+            if (m_motionCurve.getHeadKey() == null)
+                return m_motionCurve.getDefaultValue();
+
+            // periodic extrapolation maps the time onto the keys and carries on with the search from the last key
+            MotionKey headKey = m_motionCurve.getHeadKey();
+            MotionKey tailKey = m_motionCurve.getTailKey();
+            double valueOffset = 0;
+            if (time > tailKey.getTime() || time < headKey.getTime()) {
+                boolean post = time > tailKey.getTime();
+                ExtrapolationMethods method = post ? m_motionCurve.m_postExtrapolation : m_motionCurve.m_preExtrapolation;
+                MotionKey endKey = post ? tailKey : headKey;
+                switch (method) {
+                    case EXTRAPOLATION_CONSTANT:
+                        return endKey.getValue();
+                    case EXTRAPOLATION_LINEAR: {
+                        double slope = post ? tailKey.getPrevSlope() : headKey.getNextSlope();
+                        return endKey.getValue() + slope * (time - endKey.getTime());
                     }
+                    default: {
+                        if (headKey.getTime() == tailKey.getTime())
+                            return headKey.getValue();
+                        double periods = periodCount(time, headKey.getTime(), tailKey.getTime());
+                        if (method == ExtrapolationMethods.EXTRAPOLATION_CYCLE_RELATIVE)
+                            valueOffset = periods * (tailKey.getValue() - headKey.getValue());
+                        time = periodicTime(method, time, headKey.getTime(), tailKey.getTime(), periods);
+                    }
+                }
+            }
 
-                    if (diffx > 0)
-                        positiveError = diffx;
-                    else
-                        negativeError = diffx;
+            if (m_lastAccessedKey != null) {
+                if (m_bLastTimeValid && time == m_lastTime)
+                    return valueOffset + m_lastValue; // if same as last time
+            } else // if last key is not valid start from the beginning
+            {
+                m_lastAccessedKey = m_motionCurve.getHeadKey();
+            }
+
+            if (m_lastAccessedKey.getTime() <= time) {
+                for (MotionKey key = m_lastAccessedKey; key != null; key = key.getNextKey()) {
+                    MotionKey nextKey = key.getNextKey();
+                    if (key.getTime() == time) {
+                        m_lastAccessedKey = key;
+                        m_lastValue = key.getValue();
+                        break;
+                    } else if (nextKey.getTime() == time) {
+                        m_lastAccessedKey = nextKey;
+                        m_lastValue = nextKey.getValue();
+                        break;
+                    } else if (nextKey.getTime() > time) {
+                        m_lastAccessedKey = key;
+                        m_lastValue = InterpolateValue(time, key, m_inversionStatistics);
+                        break;
+                    }
+                }
+            } else {
+                for (MotionKey key = m_lastAccessedKey.getPrevKey(); key != null; key = key.getPrevKey()) {
+                    MotionKey nextKey = key.getNextKey();
+                    if (key.getTime() == time) {
+                        m_lastAccessedKey = key;
+                        m_lastValue = key.getValue();
+                        break;
+                    } else if (nextKey.getTime() == time) {
+                        m_lastAccessedKey = nextKey;
+                        m_lastValue = nextKey.getValue();
+                        break;
+                    } else if (key.getTime() < time) {
+                        m_lastAccessedKey = key;
+                        m_lastValue = InterpolateValue(time, key, m_inversionStatistics);
+                        break;
+                    }
                 }
             }
 
-            return pKey.getYCoefficients().evaluate(guesst);
+            m_lastTime = time;
+            m_bLastTimeValid = true;
+            return valueOffset + m_lastValue;
         }
-    }
 
-    public double getDerivative(double time) {
-        if (getHeadKey() == null || getHeadKey() == getTailKey())
-            return 0;
+        /**
+         * Fills values[i] (and derivatives[i] when derivatives is not null) with the curve sampled at t0 + i * dt.
+         * Each segment is located once and the samples inside it are stepped with forward differencing, so baking
+         * a whole curve costs little more than the number of samples and allocates nothing.
+         */
+        public void sample(double t0, double dt, int n, double[] values, double[] derivatives) {
+            validate();
+
+            MotionKey headKey = m_motionCurve.getHeadKey();
+            MotionKey tailKey = m_motionCurve.getTailKey();
+            int i = 0;
+            while (i < n) {
+                double time = t0 + i * dt;
+                if (dt <= 0 || headKey == null || time < headKey.getTime() || time >= tailKey.getTime()) {  // extrapolated, or no segment to step through
+                    values[i] = getValue(time);
+                    if (derivatives != null)
+                        derivatives[i] = getDerivative(time);
+                    i++;
+                    continue;
+                }
 
-        if (getLastAccessedKey().getTime() <= time) {
-            for (MotionKey key = getLastAccessedKey(); key != null; key = key.getNextKey()) {
+                MotionKey key = findSegment(time);
                 MotionKey nextKey = key.getNextKey();
-                if (nextKey == null)
-                    return m_lastDerivative;
-                if (key.getTime() == time) {
-                    Vector2 tangent = key.getNextTangent();
-                    m_lastDerivative = tangent.getY() / tangent.getX();
-                    break;
-                } else if (nextKey.getTime() == time) {
-                    Vector2 tangent = nextKey.getPrevTangent();
-                    m_lastDerivative = tangent.getY() / tangent.getX();
-                    break;
-                } else if (nextKey.getTime() > time) {
-                    m_lastDerivative = derivative(time, key);
-                    break;
+                double pointax = key.getTime();
+                double xspan = nextKey.getTime() - pointax;
+
+                int end = i;  // one past the last sample inside this segment
+                while (end < n && t0 + end * dt < nextKey.getTime())
+                    end++;
+
+                MotionKey.SlopeMethod nextSlopeMethod = key.getNextSlopeMethod();
+                if (nextSlopeMethod == MotionKey.SlopeMethod.SLOPE_STEPPED || nextSlopeMethod == MotionKey.SlopeMethod.SLOPE_STEPPED_NEXT) {
+                    double value = nextSlopeMethod == MotionKey.SlopeMethod.SLOPE_STEPPED ? key.getValue() : nextKey.getValue();
+                    for (; i < end; i++) {
+                        values[i] = value;
+                        if (derivatives != null)
+                            derivatives[i] = 0;
+                    }
+                } else if (nextSlopeMethod == MotionKey.SlopeMethod.SLOPE_LINEAR && nextKey.getPrevSlopeMethod() == MotionKey.SlopeMethod.SLOPE_LINEAR) {
+                    double slope = (nextKey.getValue() - key.getValue()) / xspan;
+                    for (; i < end; i++) {
+                        values[i] = key.getValue() + (t0 + i * dt - pointax) * slope;
+                        if (derivatives != null)
+                            derivatives[i] = slope;
+                    }
+                } else if (key.isNextSegmentXLinear()) {  // x is linear, step y directly
+                    key.getYCoefficients().initFD((time - pointax) / xspan, dt / xspan, m_fd);
+                    for (; i < end; i++) {
+                        values[i] = m_fd[0];
+                        if (derivatives != null)
+                            derivatives[i] = m_fd[4] / xspan;
+                        CubicCoefficients1D.bumpFDFaster(m_fd);
+                    }
+                } else {  // weighted tangents, every sample needs its own x inversion
+                    for (; i < end; i++) {
+                        double sampleTime = t0 + i * dt;
+                        values[i] = InterpolateValue(sampleTime, key, m_inversionStatistics);
+                        if (derivatives != null)
+                            derivatives[i] = derivative(sampleTime, key, m_inversionStatistics);
+                    }
                 }
             }
-        } else {
-            for (MotionKey key = getLastAccessedKey().getPrevKey(); key != null; key = key.getPrevKey()) {
-                MotionKey nextKey = key.getNextKey();
-                if (nextKey == null)
-                    return m_lastDerivative;
-                if (key.getTime() == time) {
-                    Vector2 tangent = key.getNextTangent();
-                    m_lastDerivative = tangent.getY() / tangent.getX();
-                    break;
-                } else if (nextKey.getTime() == time) {
-                    Vector2 tangent = nextKey.getPrevTangent();
-                    m_lastDerivative = tangent.getY() / tangent.getX();
-                    break;
-                } else if (key.getTime() < time) {
-                    m_lastDerivative = derivative(time, key);
-                    break;
+        }
+
+        /**
+         * Fills out with the value, slope and curvature of the curve at time.  Outside of the keys the value follows
+         * the extrapolation methods, with the slope of linear extrapolation, zero slope for constant extrapolation and
+         * the mapped slope and curvature of the periodic methods.
+         */
+        public void evaluate(double time, MotionSample out) {
+            validate();
+
+            MotionKey headKey = m_motionCurve.getHeadKey();
+            MotionKey tailKey = m_motionCurve.getTailKey();
+            if (headKey == null) {
+                out.set(m_motionCurve.getDefaultValue(), 0, 0);
+                return;
+            }
+
+            double valueOffset = 0;
+            double slopeSign = 1;
+            if (headKey == tailKey || time < headKey.getTime() || time > tailKey.getTime()) {
+                ExtrapolationMethods method = time > tailKey.getTime() ? m_motionCurve.m_postExtrapolation : m_motionCurve.m_preExtrapolation;
+                if (headKey.getTime() == tailKey.getTime() || !isPeriodic(method)) {
+                    out.set(getValue(time), getDerivative(time), 0);
+                    return;
                 }
+
+                double periods = periodCount(time, headKey.getTime(), tailKey.getTime());
+                if (method == ExtrapolationMethods.EXTRAPOLATION_CYCLE_RELATIVE)
+                    valueOffset = periods * (tailKey.getValue() - headKey.getValue());
+                else if (method == ExtrapolationMethods.EXTRAPOLATION_OSCILLATE && periods % 2 != 0)
+                    slopeSign = -1;
+                time = periodicTime(method, time, headKey.getTime(), tailKey.getTime(), periods);
+            }
+
+            if (time == tailKey.getTime()) {
+                evaluateSegment(time, tailKey.getPrevKey(), out, m_inversionStatistics);
+                out.set(tailKey.getValue(), tailKey.getPrevSlope(), out.getSecondDerivative());
+            } else {
+                MotionKey key = findSegment(time);
+                evaluateSegment(time, key, out, m_inversionStatistics);
+                if (key.getTime() == time)  // exactly on a key, match getValue and getDerivative
+                    out.set(key.getValue(), key.getNextSlope(), out.getSecondDerivative());
             }
+            out.set(valueOffset + out.getValue(), slopeSign * out.getDerivative(), out.getSecondDerivative());
         }
 
-        return m_lastDerivative;
-    }
+        // the key starting the segment which contains time, head <= time < tail, searching from the last accessed key
+        private MotionKey findSegment(double time) {
+            MotionKey key = m_lastAccessedKey != null ? m_lastAccessedKey : m_motionCurve.getHeadKey();
+            while (key.getTime() > time)
+                key = key.getPrevKey();
+            while (key.getNextKey().getTime() <= time)
+                key = key.getNextKey();
+
+            if (key != m_lastAccessedKey) {
+                m_lastAccessedKey = key;
+                m_bLastTimeValid = false;
+            }
+            return key;
+        }
 
-    private double derivative(double time, MotionKey pKey) {
-        MotionKey pNextKey = pKey.getNextKey();
+        public double getDerivative(double time) {
+            validate();
+
+            MotionKey headKey = m_motionCurve.getHeadKey();
+            MotionKey tailKey = m_motionCurve.getTailKey();
+            if (headKey == null || headKey == tailKey)
+                return 0;
+
+            double slopeSign = 1;
+            if (time > tailKey.getTime() || time < headKey.getTime()) {
+                ExtrapolationMethods method = time > tailKey.getTime() ? m_motionCurve.m_postExtrapolation : m_motionCurve.m_preExtrapolation;
+                switch (method) {
+                    case EXTRAPOLATION_CONSTANT:
+                        return 0;
+                    case EXTRAPOLATION_LINEAR:
+                        return time > tailKey.getTime() ? tailKey.getPrevSlope() : headKey.getNextSlope();
+                    default: {
+                        if (headKey.getTime() == tailKey.getTime())
+                            return 0;
+                        double periods = periodCount(time, headKey.getTime(), tailKey.getTime());
+                        if (method == ExtrapolationMethods.EXTRAPOLATION_OSCILLATE && periods % 2 != 0)
+                            slopeSign = -1;
+                        time = periodicTime(method, time, headKey.getTime(), tailKey.getTime(), periods);
+                    }
+                }
+            }
 
-        MotionKey.SlopeMethod nextSlopeMethod = pKey.getNextSlopeMethod();
-        MotionKey.SlopeMethod prevSlopeMethod = pNextKey.getPrevSlopeMethod();
+            if (time == tailKey.getTime())
+                return slopeSign * tailKey.getPrevSlope();
 
-        if (nextSlopeMethod == MotionKey.SlopeMethod.SLOPE_STEPPED)
-            return 0;
-        else if (nextSlopeMethod == MotionKey.SlopeMethod.SLOPE_STEPPED_NEXT)
-            return 0;
-        else if (nextSlopeMethod == MotionKey.SlopeMethod.SLOPE_LINEAR && prevSlopeMethod == MotionKey.SlopeMethod.SLOPE_LINEAR) {
-            return (pNextKey.getValue() - pKey.getValue()) / (pNextKey.getTime() - pKey.getTime());
-        } else {
-            double evalx = time;
-            double pointax = pKey.getTime();
-            double pointbx = pNextKey.getTime();
-            double xspan = pointbx - pointax;
-            double guesst = (evalx - pointax) / xspan;
-
-            // if the weights are default, then the x cubic is linear and there is no need to evaluate it
-            if (pKey.getNextMagnitude() == 1.0f && pNextKey.getPrevMagnitude() == 1.0f)
-                return pKey.getYCoefficients().derivative(guesst);
-
-            // Spline - non default tangents means that we need a second parametric cubic for x as a function of t
-            double diffx = evalx - pKey.getXCoefficients().evaluate(guesst);
-            double error = Math.abs(diffx);
-            double maxerror = MAXFRAMEERROR / 30.0f;
-
-            if (error > maxerror) {
-                double positiveError = Double.MAX_VALUE;
-                double negativeError = -Double.MAX_VALUE;
-
-                if (diffx > 0)
-                    positiveError = diffx;
-                else
-                    negativeError = diffx;
-
-                while (error > maxerror) {
-                    guesst = guesst + diffx / pKey.getXCoefficients().derivative(guesst);
-                    diffx = evalx - pKey.getXCoefficients().evaluate(guesst);
-                    error = Math.abs(diffx);
-
-                    if ((diffx > 0 && diffx > positiveError) || (diffx < 0 && diffx < negativeError)) {  // NOT CONVERGING, PROBABLY BOGUS CHANNEL DATA, WALK USING BUMP FD
-                        assert (false);
-                        maxerror = 1.0f / 100.0f;  // DON'T BE AS ACCURATE BECAUSE THIS IS MUCH SLOWER
-                        int steps = (int) (xspan / maxerror);
-                        steps = Math.min(steps, 1000);
-                        double deltat = 1.0f / steps;
-                        pKey.getXCoefficients().initFD(steps);
-                        int i;
-                        diffx = error;
-                        for (i = 0, guesst = 0.0; diffx > maxerror && i < steps; guesst += deltat, i++)
-                            diffx = Math.abs(evalx - pKey.getXCoefficients().bumpFD());
+            if (m_lastAccessedKey == null)
+                m_lastAccessedKey = m_motionCurve.getHeadKey();
+
+            if (m_lastAccessedKey.getTime() <= time) {
+                for (MotionKey key = m_lastAccessedKey; key != null; key = key.getNextKey()) {
+                    MotionKey nextKey = key.getNextKey();
+                    if (nextKey == null)
+                        return slopeSign * m_lastDerivative;
+                    if (key.getTime() == time) {
+                        m_lastDerivative = key.getNextSlope();
+                        break;
+                    } else if (nextKey.getTime() == time) {
+                        m_lastDerivative = nextKey.getPrevSlope();
+                        break;
+                    } else if (nextKey.getTime() > time) {
+                        m_lastDerivative = derivative(time, key, m_inversionStatistics);
+                        break;
+                    }
+                }
+            } else {
+                for (MotionKey key = m_lastAccessedKey.getPrevKey(); key != null; key = key.getPrevKey()) {
+                    MotionKey nextKey = key.getNextKey();
+                    if (nextKey == null)
+                        return slopeSign * m_lastDerivative;
+                    if (key.getTime() == time) {
+                        m_lastDerivative = key.getNextSlope();
+                        break;
+                    } else if (nextKey.getTime() == time) {
+                        m_lastDerivative = nextKey.getPrevSlope();
+                        break;
+                    } else if (key.getTime() < time) {
+                        m_lastDerivative = derivative(time, key, m_inversionStatistics);
                         break;
                     }
-
-                    if (diffx > 0)
-                        positiveError = diffx;
-                    else
-                        negativeError = diffx;
                 }
             }
 
-            return pKey.getYCoefficients().derivative(guesst);
+            return slopeSign * m_lastDerivative;
         }
     }
 
@@ -645,6 +1029,7 @@ public class MotionCurve {
             prevKey = key;
         }
         m_tailKey = prevKey;
+        m_keyIndex = null;
     }
 
     public boolean getMarkbeginOrEndKeysToZeroSlope() {
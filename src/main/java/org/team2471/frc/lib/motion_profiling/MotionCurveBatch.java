@@ -0,0 +1,178 @@
+package org.team2471.frc.lib.motion_profiling;
+
+import java.util.Arrays;
+
+/**
+ * Evaluates a set of {@link MotionCurve}s at one time in a single pass, for animations and visualizers that sample
+ * many channels together.
+ * <p>
+ * The key times and segment cubics of every channel are copied back to back into shared arrays, with stepped and
+ * linear segments written as cubics too.  Each call first finds the segment of every channel, trying the one it was
+ * last sampled in before a binary search, and the fraction of the time through it, inverting the x cubic of weighted
+ * segments.  The cubic of a channel is only copied into the per-channel columns when it moves to another segment, and
+ * the polynomials of all channels are then evaluated together by {@link MotionCurveBatchKernel}, with the Vector API
+ * where the runtime has it.  Only times outside a channel's keys are handed to that channel's
+ * {@link CompiledMotionCurve}, for its extrapolation.
+ * <p>
+ * The last segment of each channel is remembered between calls, so a batch should not be shared between threads.
+ * Like a compiled curve it does not follow later edits to its source curves.
+ */
+public final class MotionCurveBatch {
+    private final CompiledMotionCurve[] m_curves;
+    private final int[] m_firstKeys;     // index of each channel's first key in the shared arrays, plus one past the end
+    private final int[] m_segments;      // segment each channel was last sampled in
+    private final double[] m_times;
+    private final double[] m_values;
+    private final double[] m_inverseSpans;
+    private final double[] m_coefficients;   // a, b, c, d of the cubic in the fraction of each segment, 4 per key
+    private final double[] m_xCoefficients;  // only filled in for weighted segments
+    private final boolean[] m_weighted;
+
+    // the cubic each channel is evaluated with, one column per coefficient so the kernel reads them in lanes
+    private final int[] m_loadedSegments;  // segment whose cubic is in the columns, -1 for a constant
+    private final double[] m_as;
+    private final double[] m_bs;
+    private final double[] m_cs;
+    private final double[] m_ds;
+    private final double[] m_fractions;
+
+    public MotionCurveBatch(MotionCurve... motionCurves) {
+        int channelCount = motionCurves.length;
+        m_curves = new CompiledMotionCurve[channelCount];
+        m_firstKeys = new int[channelCount + 1];
+        m_segments = new int[channelCount];
+        for (int channel = 0; channel < channelCount; channel++) {
+            m_curves[channel] = motionCurves[channel].compile();
+            m_firstKeys[channel + 1] = m_firstKeys[channel] + m_curves[channel].getKeyCount();
+        }
+
+        int keyCount = m_firstKeys[channelCount];
+        m_times = new double[keyCount];
+        m_values = new double[keyCount];
+        m_inverseSpans = new double[keyCount];
+        m_coefficients = new double[keyCount * 4];
+        m_xCoefficients = new double[keyCount * 4];
+        m_weighted = new boolean[keyCount];
+        for (int channel = 0; channel < channelCount; channel++) {
+            m_segments[channel] = m_firstKeys[channel];
+            int key = m_firstKeys[channel];
+            for (MotionKey motionKey = motionCurves[channel].getHeadKey(); motionKey != null; motionKey = motionKey.getNextKey(), key++) {
+                m_times[key] = motionKey.getTime();
+                m_values[key] = motionKey.getValue();
+                MotionKey nextKey = motionKey.getNextKey();
+                if (nextKey == null)
+                    break;
+
+                double span = nextKey.getTime() - motionKey.getTime();
+                m_inverseSpans[key] = span > 0 ? 1 / span : 0;
+                int offset = key * 4;
+                switch (m_curves[channel].getSegmentType(key - m_firstKeys[channel])) {
+                    case CompiledMotionCurve.SEGMENT_STEPPED:
+                        m_coefficients[offset + 3] = motionKey.getValue();
+                        break;
+                    case CompiledMotionCurve.SEGMENT_STEPPED_NEXT:
+                        m_coefficients[offset + 3] = nextKey.getValue();
+                        break;
+                    case CompiledMotionCurve.SEGMENT_LINEAR:
+                        m_coefficients[offset + 2] = nextKey.getValue() - motionKey.getValue();
+                        m_coefficients[offset + 3] = motionKey.getValue();
+                        break;
+                    case CompiledMotionCurve.SEGMENT_WEIGHTED:
+                        m_weighted[key] = true;
+                        copyCoefficients(motionKey.getXCoefficients(), m_xCoefficients, offset);
+                        copyCoefficients(motionKey.getYCoefficients(), m_coefficients, offset);
+                        break;
+                    default:
+                        copyCoefficients(motionKey.getYCoefficients(), m_coefficients, offset);
+                }
+            }
+        }
+
+        m_loadedSegments = new int[channelCount];
+        Arrays.fill(m_loadedSegments, -1);
+        m_as = new double[channelCount];
+        m_bs = new double[channelCount];
+        m_cs = new double[channelCount];
+        m_ds = new double[channelCount];
+        m_fractions = new double[channelCount];
+    }
+
+    private static void copyCoefficients(CubicCoefficients1D coefficients, double[] array, int offset) {
+        array[offset] = coefficients.getA();
+        array[offset + 1] = coefficients.getB();
+        array[offset + 2] = coefficients.getC();
+        array[offset + 3] = coefficients.getD();
+    }
+
+    public int getChannelCount() {
+        return m_curves.length;
+    }
+
+    /**
+     * Fills values[i] with channel i at time.
+     */
+    public void getValues(double time, double[] values) {
+        int channelCount = m_curves.length;
+        for (int channel = 0; channel < channelCount; channel++) {
+            int first = m_firstKeys[channel];
+            int last = m_firstKeys[channel + 1] - 1;
+            if (last <= first || !(time > m_times[first]) || time >= m_times[last]) {  // on or outside the end keys
+                loadConstant(channel, m_curves[channel].getValue(time));
+                continue;
+            }
+
+            int key = m_segments[channel];
+            if (!(time >= m_times[key] && time < m_times[key + 1])) {
+                key = findSegment(first, last, time);
+                m_segments[channel] = key;
+            }
+
+            if (m_times[key] == time) {
+                loadConstant(channel, m_values[key]);
+                continue;
+            }
+
+            if (m_loadedSegments[channel] != key) {
+                int offset = key * 4;
+                m_as[channel] = m_coefficients[offset];
+                m_bs[channel] = m_coefficients[offset + 1];
+                m_cs[channel] = m_coefficients[offset + 2];
+                m_ds[channel] = m_coefficients[offset + 3];
+                m_loadedSegments[channel] = key;
+            }
+
+            double u = (time - m_times[key]) * m_inverseSpans[key];
+            if (m_weighted[key]) {
+                int offset = key * 4;
+                u = CubicCoefficients1D.solve(m_xCoefficients[offset], m_xCoefficients[offset + 1], m_xCoefficients[offset + 2],
+                        m_xCoefficients[offset + 3], time, u, MotionCurve.MAXFRAMEERROR / 30.0f, null);
+            }
+            m_fractions[channel] = u;
+        }
+
+        MotionCurveBatchKernel.evaluate(m_as, m_bs, m_cs, m_ds, m_fractions, values, channelCount);
+    }
+
+    // the last key at or before time, for a time between the end keys
+    private int findSegment(int first, int last, double time) {
+        int low = first;
+        int high = last;
+        while (high - low > 1) {
+            int middle = (low + high) >>> 1;
+            if (m_times[middle] <= time)
+                low = middle;
+            else
+                high = middle;
+        }
+        return low;
+    }
+
+    private void loadConstant(int channel, double value) {
+        m_as[channel] = 0;
+        m_bs[channel] = 0;
+        m_cs[channel] = 0;
+        m_ds[channel] = value;
+        m_fractions[channel] = 0;
+        m_loadedSegments[channel] = -1;
+    }
+}
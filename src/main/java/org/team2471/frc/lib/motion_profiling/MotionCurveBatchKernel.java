@@ -0,0 +1,19 @@
+package org.team2471.frc.lib.motion_profiling;
+
+/**
+ * Evaluates the per-channel cubics of a {@link MotionCurveBatch} at their fractions.
+ * <p>
+ * This is the scalar loop run on Java 11.  A jar built with a JDK of 16 or later also carries a Vector API version of
+ * this class from src/main/java16 under META-INF/versions/16, which those runtimes load in its place.
+ */
+final class MotionCurveBatchKernel {
+    private MotionCurveBatchKernel() {
+    }
+
+    static void evaluate(double[] as, double[] bs, double[] cs, double[] ds, double[] fractions, double[] values, int count) {
+        for (int i = 0; i < count; i++) {
+            double u = fractions[i];
+            values[i] = ((as[i] * u + bs[i]) * u + cs[i]) * u + ds[i];
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package org.team2471.frc.lib.motion_profiling;
+
+import java.util.Arrays;
+
+/**
+ * Reduces a stream of densely recorded (time, value) samples to a {@link MotionCurve} with as few keys as it can.
+ * <p>
+ * Samples are fitted greedily with cubic segments that pass through their end samples and join with matching slopes.
+ * Each new sample extends the current segment, the free end slope is refitted by least squares over the samples the
+ * segment spans, and when any of them would miss by more than the tolerance the start slope is freed as well, leaving
+ * a corner at the key.  When neither fits, a key is placed at the last sample that still fit.  Only the samples of the
+ * segment being fitted are held, so memory grows with the number of keys emitted rather than the length of the
+ * recording.
+ */
+public final class MotionCurveFitter {
+    static final int MAX_SEGMENT_SAMPLES = 256;  // bounds the refit cost of long holds, a key is forced past this
+
+    private final double m_tolerance;
+
+    // keys emitted so far
+    private double[] m_keyTimes = new double[16];
+    private double[] m_keyValues = new double[16];
+    private double[] m_keyPrevSlopes = new double[16];
+    private double[] m_keyNextSlopes = new double[16];
+    private int m_keyCount;
+
+    // samples after the last key, the newest one being the candidate end of the current segment
+    private final double[] m_sampleTimes = new double[MAX_SEGMENT_SAMPLES];
+    private final double[] m_sampleValues = new double[MAX_SEGMENT_SAMPLES];
+    private int m_sampleCount;
+    private double m_startSlope;  // fitted slope leaving the last key, valid once m_sampleCount > 0
+    private double m_endSlope;    // fitted slope at the newest sample, valid once m_sampleCount > 0
+
+    public MotionCurveFitter(double tolerance) {
+        if (!(tolerance > 0))
+            throw new IllegalArgumentException("tolerance must be positive, got " + tolerance);
+        m_tolerance = tolerance;
+    }
+
+    public double getTolerance() {
+        return m_tolerance;
+    }
+
+    /**
+     * The number of keys the fitted curve would have if it were finished now.
+     */
+    public int getKeyCount() {
+        return m_keyCount + (m_sampleCount > 0 ? 1 : 0);
+    }
+
+    public void addSample(double time, double value) {
+        if (m_keyCount == 0) {
+            addKey(time, value, 0);
+            return;
+        }
+
+        double lastTime = m_sampleCount > 0 ? m_sampleTimes[m_sampleCount - 1] : m_keyTimes[m_keyCount - 1];
+        if (!(time > lastTime))
+            throw new IllegalArgumentException("Sample times must be increasing, got " + time + " after " + lastTime);
+
+        if (m_sampleCount < MAX_SEGMENT_SAMPLES) {
+            m_sampleTimes[m_sampleCount] = time;
+            m_sampleValues[m_sampleCount] = value;
+            m_sampleCount++;
+            if (fitSegment())
+                return;
+            m_sampleCount--;
+        }
+
+        // the segment can't reach this sample, end it at the previous one and start the next segment there
+        closeSegment();
+        m_sampleTimes[0] = time;
+        m_sampleValues[0] = value;
+        m_sampleCount = 1;
+        fitSegment();
+    }
+
+    /**
+     * Builds the curve from the keys fitted so far, the fitter may keep taking samples afterwards.
+     */
+    public MotionCurve getMotionCurve() {
+        MotionCurve motionCurve = new MotionCurve();
+        int keyCount = getKeyCount();
+        if (keyCount == 0)
+            return motionCurve;
+
+        motionCurve.beginEdit();
+        for (int i = 0; i < keyCount; i++)
+            motionCurve.appendKey(getKeyTime(i), i < m_keyCount ? m_keyValues[i] : m_sampleValues[m_sampleCount - 1]);
+
+        int i = 0;
+        for (MotionKey key = motionCurve.getHeadKey(); key != null; key = key.getNextKey(), i++) {
+            double prevSlope = i < m_keyCount ? m_keyPrevSlopes[i] : m_endSlope;
+            double nextSlope = i < m_keyCount - 1 ? m_keyNextSlopes[i] : i == m_keyCount - 1 && m_sampleCount > 0 ? m_startSlope : prevSlope;
+            if (i == 0)
+                prevSlope = nextSlope;
+            double prevSpan = i > 0 ? getKeyTime(i) - getKeyTime(i - 1) : 1;
+            double nextSpan = i < keyCount - 1 ? getKeyTime(i + 1) - getKeyTime(i) : 1;
+            key.setPrevAngleAndMagnitude(MotionKey.slopeAngleAndMagnitude(prevSlope, prevSpan));
+            key.setNextAngleAndMagnitude(MotionKey.slopeAngleAndMagnitude(nextSlope, nextSpan));
+            key.setMarkBeginOrEndKeysToZeroSlope(false);
+        }
+        motionCurve.endEdit();
+        return motionCurve;
+    }
+
+    private double getKeyTime(int index) {
+        return index < m_keyCount ? m_keyTimes[index] : m_sampleTimes[m_sampleCount - 1];
+    }
+
+    // fits the slopes of the segment from the last key to the newest sample, returns whether every sample in between
+    // is within tolerance.  The segment first tries to leave the key with the slope it arrived with, and only when
+    // that fails is the start slope fitted too.
+    private boolean fitSegment() {
+        double t0 = m_keyTimes[m_keyCount - 1];
+        double p0 = m_keyValues[m_keyCount - 1];
+        int last = m_sampleCount - 1;
+        double span = m_sampleTimes[last] - t0;
+        double p1 = m_sampleValues[last];
+        double m0 = m_keyPrevSlopes[m_keyCount - 1] * span;
+
+        // the hermite cubic is linear in both tangents, y(u) = h00(u) * p0 + h01(u) * p1 + h10(u) * m0 + h11(u) * m1
+        double s1010 = 0, s1011 = 0, s1111 = 0, s10r = 0, s11r = 0;
+        for (int i = 0; i < last; i++) {
+            double u = (m_sampleTimes[i] - t0) / span;
+            double h10 = u * (u - 1) * (u - 1);
+            double h11 = u * u * (u - 1);
+            double residual = m_sampleValues[i] - endPointPart(u, p0, p1);
+            s1010 += h10 * h10;
+            s1011 += h10 * h11;
+            s1111 += h11 * h11;
+            s10r += h10 * residual;
+            s11r += h11 * residual;
+        }
+
+        double m1 = s1111 > 0 ? (s11r - s1011 * m0) / s1111 : p1 - p0;
+        if (!fits(t0, span, p0, p1, m0, m1)) {
+            double determinant = s1010 * s1111 - s1011 * s1011;
+            if (!(determinant > 0))
+                return false;
+            m0 = (s10r * s1111 - s11r * s1011) / determinant;
+            m1 = (s11r * s1010 - s10r * s1011) / determinant;
+            if (!fits(t0, span, p0, p1, m0, m1))
+                return false;
+        }
+        m_startSlope = m0 / span;
+        m_endSlope = m1 / span;
+        return true;
+    }
+
+    private boolean fits(double t0, double span, double p0, double p1, double m0, double m1) {
+        for (int i = 0; i < m_sampleCount - 1; i++) {
+            double u = (m_sampleTimes[i] - t0) / span;
+            double value = endPointPart(u, p0, p1) + u * (u - 1) * (u - 1) * m0 + u * u * (u - 1) * m1;
+            if (Math.abs(value - m_sampleValues[i]) > m_tolerance)
+                return false;
+        }
+        return true;
+    }
+
+    private static double endPointPart(double u, double p0, double p1) {
+        double u2 = u * u;
+        double u3 = u2 * u;
+        return (2 * u3 - 3 * u2 + 1) * p0 + (-2 * u3 + 3 * u2) * p1;
+    }
+
+    private void closeSegment() {
+        m_keyNextSlopes[m_keyCount - 1] = m_startSlope;
+        addKey(m_sampleTimes[m_sampleCount - 1], m_sampleValues[m_sampleCount - 1], m_endSlope);
+        m_sampleCount = 0;
+    }
+
+    private void addKey(double time, double value, double prevSlope) {
+        if (m_keyCount == m_keyTimes.length) {
+            m_keyTimes = Arrays.copyOf(m_keyTimes, m_keyCount * 2);
+            m_keyValues = Arrays.copyOf(m_keyValues, m_keyCount * 2);
+            m_keyPrevSlopes = Arrays.copyOf(m_keyPrevSlopes, m_keyCount * 2);
+            m_keyNextSlopes = Arrays.copyOf(m_keyNextSlopes, m_keyCount * 2);
+        }
+        m_keyTimes[m_keyCount] = time;
+        m_keyValues[m_keyCount] = value;
+        m_keyPrevSlopes[m_keyCount] = prevSlope;
+        m_keyCount++;
+    }
+}
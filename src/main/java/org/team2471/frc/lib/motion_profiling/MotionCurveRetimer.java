@@ -0,0 +1,457 @@
+package org.team2471.frc.lib.motion_profiling;
+
+import java.util.Arrays;
+
+/**
+ * Slows a {@link MotionCurve} down so its slope and acceleration stay within limits, see
+ * {@link MotionCurve#retime(double, double)}.
+ * <p>
+ * The curve is sampled at a few evenly spaced times in every segment and the rate r at which the retimed curve moves
+ * through the original time is found at each sample, time optimal parameterization style.  With q = r * r the retimed
+ * slope is y' * r and its acceleration y'' * q + y' * q' / 2, so the velocity limit caps q at every sample and the
+ * acceleration limit bounds how fast q may change between them.  q starts at the cap, which is never above 1 so the
+ * curve is never sped up, and a forward then a backward pass lower it wherever it would have to change too quickly.
+ * Segments within the limits and left at full rate are copied whole with their own tangents, and the others get a key
+ * at every sample with the retimed slope.
+ * <p>
+ * The passes only hold the limits at the samples, so the cubic between two new keys is checked analytically, as the
+ * hermite with the retimed slopes at its ends over the time the rates give it.  One much too steep may be hiding a peak
+ * of the curve between its samples, so it is split at its middle and the rates are found again.  Sweeps then lower the
+ * rate at one end of every interval still outside the limits to the largest that brings it within them, or both of its
+ * rates in proportion when that is not enough, so only those intervals are slowed.  A retime that has not settled
+ * after {@link #MAX_SWEEPS} sweeps fails rather than return a curve beyond the limits.  Weighted segments are copied
+ * whole only when they are within the limits at {@link #WEIGHTED_CHECKS} points, and a curve that turns vertical
+ * cannot be retimed.
+ */
+final class MotionCurveRetimer {
+    static final int SAMPLES_PER_SEGMENT = 16;
+    static final int WEIGHTED_CHECKS = 64;
+    static final int SUBDIVISION_PASSES = 6;
+    static final double SPLIT_OVERSHOOT = 1.05;  // how much too steep an interval is split rather than slowed
+    static final int MAX_SWEEPS = 64;
+    static final int LOWERING_STEPS = 16;
+    static final double TOLERANCE = 1e-6;  // relative overshoot still counted as within the limits
+
+    private final MotionCurve m_motionCurve;
+    private final CompiledMotionCurve m_curve;
+    private final double m_maxVelocity;
+    private final double m_maxAcceleration;
+    private final double[] m_tangents;   // x and y of the prev then the next tangent of each key
+    private final boolean[] m_copyable;  // segments within the limits, which may be copied whole at full rate
+
+    private int m_intervalCount;
+    private double[] m_times;
+    private double[] m_values;
+    private double[] m_caps;  // the largest q at each sample
+    private int[] m_segments;  // the segment each interval between samples lies in
+    private int[] m_firstSamples;  // the sample each segment starts at, and the last sample
+    // the derivatives at both ends of every interval, from the segment the interval lies in
+    private double[] m_startSlopes;
+    private double[] m_startAccelerations;
+    private double[] m_endSlopes;
+    private double[] m_endAccelerations;
+
+    private double[] m_rates;
+    private boolean[] m_whole;  // segments copied whole at full rate
+
+    private MotionCurveRetimer(MotionCurve motionCurve, double maxVelocity, double maxAcceleration) {
+        m_motionCurve = motionCurve;
+        m_curve = motionCurve.compile();
+        m_maxVelocity = maxVelocity;
+        m_maxAcceleration = maxAcceleration;
+        int keyCount = m_curve.getKeyCount();
+        int segmentCount = Math.max(keyCount - 1, 0);
+        m_tangents = new double[keyCount * 4];
+        int index = 0;
+        for (MotionKey key = motionCurve.getHeadKey(); key != null; key = key.getNextKey(), index++) {
+            m_tangents[index * 4] = key.getPrevTangent().getX();
+            m_tangents[index * 4 + 1] = key.getPrevTangent().getY();
+            m_tangents[index * 4 + 2] = key.getNextTangent().getX();
+            m_tangents[index * 4 + 3] = key.getNextTangent().getY();
+        }
+
+        m_intervalCount = segmentCount * SAMPLES_PER_SEGMENT;
+        m_times = new double[m_intervalCount + 1];
+        m_values = new double[m_intervalCount + 1];
+        m_caps = new double[m_intervalCount + 1];
+        m_segments = new int[m_intervalCount];
+        m_startSlopes = new double[m_intervalCount];
+        m_startAccelerations = new double[m_intervalCount];
+        m_endSlopes = new double[m_intervalCount];
+        m_endAccelerations = new double[m_intervalCount];
+        m_firstSamples = new int[segmentCount + 1];
+        m_copyable = new boolean[segmentCount];
+        if (keyCount == 0)
+            return;
+
+        MotionSample sample = new MotionSample();
+        m_times[0] = m_curve.getKeyTime(0);
+        m_values[0] = m_curve.getKeyValue(0);
+        for (int segment = 0; segment < segmentCount; segment++) {
+            double startTime = m_curve.getKeyTime(segment);
+            double span = m_curve.getKeyTime(segment + 1) - startTime;
+            if (!m_curve.isMonotone(segment))
+                throw new IllegalArgumentException("The curve turns vertical between " + startTime + " and "
+                        + m_curve.getKeyTime(segment + 1));
+            int first = segment * SAMPLES_PER_SEGMENT;
+            m_firstSamples[segment] = first;
+            m_firstSamples[segment + 1] = first + SAMPLES_PER_SEGMENT;
+            m_curve.evaluateSegment(startTime, segment, sample);
+            for (int i = first; i < first + SAMPLES_PER_SEGMENT; i++) {
+                m_segments[i] = segment;
+                m_startSlopes[i] = sample.getDerivative();
+                m_startAccelerations[i] = sample.getSecondDerivative();
+                m_times[i + 1] = i + 1 == first + SAMPLES_PER_SEGMENT
+                        ? m_curve.getKeyTime(segment + 1) : startTime + span * (i + 1 - first) / SAMPLES_PER_SEGMENT;
+                m_curve.evaluateSegment(m_times[i + 1], segment, sample);
+                m_values[i + 1] = sample.getValue();
+                m_endSlopes[i] = sample.getDerivative();
+                m_endAccelerations[i] = sample.getSecondDerivative();
+                if (!Double.isFinite(m_endSlopes[i]) || !Double.isFinite(m_endAccelerations[i]))
+                    throw new IllegalArgumentException("The curve has no finite slope at time " + m_times[i + 1]);
+            }
+            m_values[first + SAMPLES_PER_SEGMENT] = m_curve.getKeyValue(segment + 1);
+            m_copyable[segment] = isWithinLimits(segment);
+        }
+
+        for (int i = 0; i <= m_intervalCount; i++) {
+            double cap = 1;
+            if (i > 0)
+                cap = Math.min(cap, rateCap(m_endSlopes[i - 1], m_endAccelerations[i - 1]));
+            if (i < m_intervalCount)
+                cap = Math.min(cap, rateCap(m_startSlopes[i], m_startAccelerations[i]));
+            m_caps[i] = cap;
+        }
+    }
+
+    static MotionCurve retime(MotionCurve motionCurve, double maxVelocity, double maxAcceleration) {
+        if (!(maxVelocity > 0))
+            throw new IllegalArgumentException("maxVelocity must be positive, got " + maxVelocity);
+        if (!(maxAcceleration > 0))
+            throw new IllegalArgumentException("maxAcceleration must be positive, got " + maxAcceleration);
+
+        MotionCurveRetimer retimer = new MotionCurveRetimer(motionCurve, maxVelocity, maxAcceleration);
+        retimer.solve();
+        for (int pass = 0; pass < SUBDIVISION_PASSES && retimer.splitSteep(); pass++)
+            retimer.solve();
+        if (!retimer.lowerRates())
+            throw new IllegalStateException("Could not retime the curve within maxVelocity " + maxVelocity
+                    + " and maxAcceleration " + maxAcceleration + " in " + MAX_SWEEPS + " sweeps");
+        return retimer.build();
+    }
+
+    // whether the original segment stays within the limits, the acceleration of a cubic being linear across it
+    private boolean isWithinLimits(int segment) {
+        int segmentType = m_curve.getSegmentType(segment);
+        if (segmentType == CompiledMotionCurve.SEGMENT_STEPPED || segmentType == CompiledMotionCurve.SEGMENT_STEPPED_NEXT)
+            return true;
+        if (m_curve.maxAbsSegmentDerivative(segment) > m_maxVelocity * (1 + TOLERANCE))
+            return false;
+
+        int first = segment * SAMPLES_PER_SEGMENT;
+        double maxAcceleration = Math.max(Math.abs(m_startAccelerations[first]),
+                Math.abs(m_endAccelerations[first + SAMPLES_PER_SEGMENT - 1]));
+        if (segmentType == CompiledMotionCurve.SEGMENT_WEIGHTED) {
+            MotionSample sample = new MotionSample();
+            double startTime = m_curve.getKeyTime(segment);
+            double span = m_curve.getKeyTime(segment + 1) - startTime;
+            for (int i = 1; i < WEIGHTED_CHECKS; i++) {
+                m_curve.evaluateSegment(startTime + span * i / WEIGHTED_CHECKS, segment, sample);
+                maxAcceleration = Math.max(maxAcceleration, Math.abs(sample.getSecondDerivative()));
+            }
+        }
+        return maxAcceleration <= m_maxAcceleration * (1 + TOLERANCE);
+    }
+
+    // the rates at every sample under the caps, found with the forward and backward passes
+    private void solve() {
+        double[] squaredRates = Arrays.copyOf(m_caps, m_intervalCount + 1);
+        for (int i = 0; i < m_intervalCount; i++) {
+            double dt = m_times[i + 1] - m_times[i];
+            squaredRates[i + 1] = Math.min(squaredRates[i + 1],
+                    squaredRates[i] + dt * squaredRateChange(m_startSlopes[i], m_startAccelerations[i], squaredRates[i]));
+        }
+        for (int i = m_intervalCount - 1; i >= 0; i--) {
+            double dt = m_times[i + 1] - m_times[i];
+            squaredRates[i] = Math.min(squaredRates[i],
+                    squaredRates[i + 1] + dt * squaredRateChange(-m_endSlopes[i], m_endAccelerations[i], squaredRates[i + 1]));
+        }
+
+        m_rates = new double[m_intervalCount + 1];
+        for (int i = 0; i <= m_intervalCount; i++)
+            m_rates[i] = Math.sqrt(squaredRates[i]);
+        m_whole = new boolean[m_copyable.length];
+        for (int segment = 0; segment < m_copyable.length; segment++)
+            updateWhole(segment);
+    }
+
+    // a segment within the limits and kept at full rate is the original moved in time
+    private void updateWhole(int segment) {
+        m_whole[segment] = m_copyable[segment];
+        for (int i = m_firstSamples[segment]; m_whole[segment] && i <= m_firstSamples[segment + 1]; i++)
+            m_whole[segment] = m_rates[i] == 1;
+    }
+
+    // splits every new interval steep enough between its samples to be hiding a peak of the curve, returns whether
+    // any was
+    private boolean splitSteep() {
+        boolean[] split = new boolean[m_intervalCount];
+        int splitCount = 0;
+        for (int i = 0; i < m_intervalCount; i++) {
+            if (isConstrained(i) && velocity(i, m_rates[i], m_rates[i + 1]) > m_maxVelocity * SPLIT_OVERSHOOT) {
+                split[i] = true;
+                splitCount++;
+            }
+        }
+        if (splitCount > 0)
+            split(split, splitCount);
+        return splitCount > 0;
+    }
+
+    // lowers rates until the cubic of every new interval is within the limits, sweeping forward lowering the rate at
+    // the end of each interval and backward lowering the one at its start, returns whether that settled
+    private boolean lowerRates() {
+        for (int sweep = 0; sweep < MAX_SWEEPS; sweep++) {
+            boolean lowered = false;
+            for (int i = 0; i < m_intervalCount; i++)
+                lowered |= lowerRate(i, i + 1);
+            for (int i = m_intervalCount - 1; i >= 0; i--)
+                lowered |= lowerRate(i, i);
+            if (!lowered)
+                return true;
+        }
+        return false;
+    }
+
+    // lowers the rate at one sample of an interval outside the limits to the largest that brings it within them, or
+    // both of its rates in proportion when the other one is too high for any, returns whether it lowered anything
+    private boolean lowerRate(int interval, int sample) {
+        if (!isConstrained(interval))
+            return false;
+        double overshoot = overshoot(interval, m_rates[interval], m_rates[interval + 1]);
+        if (overshoot <= 1 + TOLERANCE)
+            return false;
+
+        double high = m_rates[sample];
+        double low = -1;
+        for (int step = 1; step <= LOWERING_STEPS; step++) {
+            double rate = high * (LOWERING_STEPS - step) / LOWERING_STEPS;
+            if (rate > 0 && overshootWithRate(interval, sample, rate) <= 1) {
+                low = rate;
+                break;
+            }
+            high = rate;
+        }
+        if (low > 0) {
+            for (int i = 0; i < 40; i++) {
+                double rate = 0.5 * (low + high);
+                if (overshootWithRate(interval, sample, rate) <= 1)
+                    low = rate;
+                else
+                    high = rate;
+            }
+            setRate(sample, low);
+        } else {
+            // the slope scales with the rates and the acceleration with their squares
+            double scale = 1 / Math.max(velocity(interval, m_rates[interval], m_rates[interval + 1]) / m_maxVelocity,
+                    Math.sqrt(acceleration(interval, m_rates[interval], m_rates[interval + 1]) / m_maxAcceleration));
+            setRate(interval, m_rates[interval] * scale);
+            setRate(interval + 1, m_rates[interval + 1] * scale);
+        }
+        return true;
+    }
+
+    private double overshootWithRate(int interval, int sample, double rate) {
+        if (sample == interval)
+            return overshoot(interval, rate, m_rates[interval + 1]);
+        return overshoot(interval, m_rates[interval], rate);
+    }
+
+    private void setRate(int sample, double rate) {
+        m_rates[sample] = rate;
+        if (sample > 0)
+            updateWhole(m_segments[sample - 1]);
+        if (sample < m_intervalCount)
+            updateWhole(m_segments[sample]);
+    }
+
+    // whether an interval gets new keys with a cubic that has to be checked, rather than being stepped or copied
+    private boolean isConstrained(int interval) {
+        int segment = m_segments[interval];
+        int segmentType = m_curve.getSegmentType(segment);
+        return !m_whole[segment] && segmentType != CompiledMotionCurve.SEGMENT_STEPPED
+                && segmentType != CompiledMotionCurve.SEGMENT_STEPPED_NEXT && m_times[interval + 1] > m_times[interval];
+    }
+
+    private double overshoot(int interval, double startRate, double endRate) {
+        return Math.max(velocity(interval, startRate, endRate) / m_maxVelocity,
+                acceleration(interval, startRate, endRate) / m_maxAcceleration);
+    }
+
+    // the new cubic across an interval is the hermite through its samples with the retimed slopes at its ends, which
+    // takes 2 dt / (r0 + r1) to cross it, so along its parameter u the slope is 3a u^2 + 2b u + s0 r0 and the
+    // acceleration (6a u + 2b) (r0 + r1) / 2dt with a and b below.  This is the largest magnitude of that slope.
+    private double velocity(int interval, double startRate, double endRate) {
+        double dt = m_times[interval + 1] - m_times[interval];
+        double start = m_startSlopes[interval] * startRate;
+        double end = m_endSlopes[interval] * endRate;
+        double secant = (m_values[interval + 1] - m_values[interval]) / dt * (startRate + endRate) / 2;
+        double a = start + end - 2 * secant;
+        double b = 3 * secant - 2 * start - end;
+        double velocity = Math.max(Math.abs(start), Math.abs(end));
+        double vertex = -b / (3 * a);
+        if (vertex > 0 && vertex < 1)
+            velocity = Math.max(velocity, Math.abs(vertex * (3 * a * vertex + 2 * b) + start));
+        return velocity;
+    }
+
+    // the largest magnitude of the acceleration of the new cubic across an interval, reached at an end as it is linear
+    private double acceleration(int interval, double startRate, double endRate) {
+        double dt = m_times[interval + 1] - m_times[interval];
+        double start = m_startSlopes[interval] * startRate;
+        double end = m_endSlopes[interval] * endRate;
+        double secant = (m_values[interval + 1] - m_values[interval]) / dt * (startRate + endRate) / 2;
+        double a = start + end - 2 * secant;
+        double b = 3 * secant - 2 * start - end;
+        return Math.max(Math.abs(2 * b), Math.abs(6 * a + 2 * b)) * (startRate + endRate) / (2 * dt);
+    }
+
+    // adds a sample in the middle of every interval marked in split
+    private void split(boolean[] split, int splitCount) {
+        int intervalCount = m_intervalCount + splitCount;
+        double[] times = new double[intervalCount + 1];
+        double[] values = new double[intervalCount + 1];
+        double[] caps = new double[intervalCount + 1];
+        int[] segments = new int[intervalCount];
+        double[] startSlopes = new double[intervalCount];
+        double[] startAccelerations = new double[intervalCount];
+        double[] endSlopes = new double[intervalCount];
+        double[] endAccelerations = new double[intervalCount];
+
+        MotionSample sample = new MotionSample();
+        int j = 0;
+        for (int i = 0; i < m_intervalCount; i++, j++) {
+            times[j] = m_times[i];
+            values[j] = m_values[i];
+            caps[j] = m_caps[i];
+            segments[j] = m_segments[i];
+            startSlopes[j] = m_startSlopes[i];
+            startAccelerations[j] = m_startAccelerations[i];
+            if (split[i]) {
+                double time = 0.5 * (m_times[i] + m_times[i + 1]);
+                m_curve.evaluateSegment(time, m_segments[i], sample);
+                endSlopes[j] = sample.getDerivative();
+                endAccelerations[j] = sample.getSecondDerivative();
+                j++;
+                times[j] = time;
+                values[j] = sample.getValue();
+                caps[j] = rateCap(sample.getDerivative(), sample.getSecondDerivative());
+                segments[j] = m_segments[i];
+                startSlopes[j] = sample.getDerivative();
+                startAccelerations[j] = sample.getSecondDerivative();
+            }
+            endSlopes[j] = m_endSlopes[i];
+            endAccelerations[j] = m_endAccelerations[i];
+        }
+        times[j] = m_times[m_intervalCount];
+        values[j] = m_values[m_intervalCount];
+        caps[j] = m_caps[m_intervalCount];
+
+        m_intervalCount = intervalCount;
+        m_times = times;
+        m_values = values;
+        m_caps = caps;
+        m_segments = segments;
+        m_startSlopes = startSlopes;
+        m_startAccelerations = startAccelerations;
+        m_endSlopes = endSlopes;
+        m_endAccelerations = endAccelerations;
+        for (int i = m_intervalCount - 1; i >= 0; i--)
+            m_firstSamples[m_segments[i]] = i;
+        m_firstSamples[m_firstSamples.length - 1] = m_intervalCount;
+    }
+
+    private MotionCurve build() {
+        MotionCurve retimed = new MotionCurve();
+        retimed.setDefaultValue(m_motionCurve.getDefaultValue());
+        retimed.setPreExtrapolation(m_motionCurve.getPreExtrapolation());
+        retimed.setPostExtrapolation(m_motionCurve.getPostExtrapolation());
+        if (m_curve.getKeyCount() == 0)
+            return retimed;
+
+        // q changes linearly across each interval, so the retimed time through it is 2 dt / (r0 + r1)
+        double[] retimedTimes = new double[m_intervalCount + 1];
+        retimedTimes[0] = m_times[0];
+        for (int i = 0; i < m_intervalCount; i++)
+            retimedTimes[i + 1] = retimedTimes[i] + 2 * (m_times[i + 1] - m_times[i]) / (m_rates[i] + m_rates[i + 1]);
+
+        int[] kept = new int[m_intervalCount + 1];
+        int keptCount = 0;
+        kept[keptCount++] = 0;
+        for (int i = 1; i <= m_intervalCount; i++) {
+            if (i == m_intervalCount || m_segments[i] != m_segments[i - 1] || !m_whole[m_segments[i]])
+                kept[keptCount++] = i;
+        }
+
+        retimed.beginEdit();
+        for (int k = 0; k < keptCount; k++) {
+            int i = kept[k];
+            MotionKey key = retimed.appendKey(retimedTimes[i], m_values[i]);
+            key.setMarkBeginOrEndKeysToZeroSlope(false);
+            if (k == 0)
+                key.setPrevAngleAndMagnitude(MotionKey.slopeAngleAndMagnitude(0, 1));
+            else if (isWholeWeighted(m_segments[i - 1])) {
+                int index = m_segments[i - 1] + 1;
+                key.setPrevAngleAndMagnitude(
+                        MotionKey.tangentAngleAndMagnitude(m_tangents[index * 4], m_tangents[index * 4 + 1]));
+            } else {
+                double span = retimedTimes[i] - retimedTimes[kept[k - 1]];
+                key.setPrevAngleAndMagnitude(MotionKey.slopeAngleAndMagnitude(m_endSlopes[i - 1] * m_rates[i], span));
+            }
+            if (k == keptCount - 1) {
+                key.setNextAngleAndMagnitude(MotionKey.slopeAngleAndMagnitude(0, 1));
+                continue;
+            }
+
+            int segment = m_segments[i];
+            int segmentType = m_curve.getSegmentType(segment);
+            if (segmentType == CompiledMotionCurve.SEGMENT_STEPPED)
+                key.setNextSlopeMethod(MotionKey.SlopeMethod.SLOPE_STEPPED);
+            else if (segmentType == CompiledMotionCurve.SEGMENT_STEPPED_NEXT)
+                key.setNextSlopeMethod(MotionKey.SlopeMethod.SLOPE_STEPPED_NEXT);
+            else if (isWholeWeighted(segment))
+                key.setNextAngleAndMagnitude(
+                        MotionKey.tangentAngleAndMagnitude(m_tangents[segment * 4 + 2], m_tangents[segment * 4 + 3]));
+            else {
+                double span = retimedTimes[kept[k + 1]] - retimedTimes[i];
+                key.setNextAngleAndMagnitude(MotionKey.slopeAngleAndMagnitude(m_startSlopes[i] * m_rates[i], span));
+            }
+        }
+        retimed.endEdit();
+        return retimed;
+    }
+
+    // weighted segments are not cubic in time, so whole ones keep their own tangents
+    private boolean isWholeWeighted(int segment) {
+        return m_whole[segment] && m_curve.getSegmentType(segment) == CompiledMotionCurve.SEGMENT_WEIGHTED;
+    }
+
+    // the largest q keeping the slope within the velocity limit, and the curvature within the acceleration limit
+    // where the slope gives no room to correct it
+    private double rateCap(double slope, double acceleration) {
+        double cap = 1;
+        if (slope != 0)
+            cap = Math.min(cap, m_maxVelocity * m_maxVelocity / (slope * slope));
+        if (acceleration != 0)
+            cap = Math.min(cap, m_maxAcceleration / Math.abs(acceleration));
+        return cap;
+    }
+
+    // the fastest q may grow with the retimed acceleration y'' * q + y' * q' / 2 within the limit, a negated slope
+    // gives the fastest it may shrink, negated, for the backward pass
+    private double squaredRateChange(double slope, double acceleration, double q) {
+        if (slope == 0)
+            return Double.POSITIVE_INFINITY;
+        return Math.max(0, 2 * (m_maxAcceleration - Math.signum(slope) * acceleration * q) / Math.abs(slope));
+    }
+}
@@ -4,9 +4,11 @@ import org.team2471.frc.lib.vector.Vector2;
 
 import static org.team2471.frc.lib.motion_profiling.MotionKey.SlopeMethod.SLOPE_MANUAL;
 import static org.team2471.frc.lib.motion_profiling.MotionKey.SlopeMethod.SLOPE_PLATEAU;
+import static org.team2471.frc.lib.motion_profiling.MotionKey.SlopeMethod.SLOPE_SPLINE;
 
 public class MotionKey {
     private transient final double CLAMPTOLERANCE = 0.005;
+    private static final double XLINEARTOLERANCE = 1e-9;  // relative to the span, for the rounding of the angle
     private Vector2 m_timeAndValue;
     private Vector2 m_prevAngleAndMagnitude;
     private Vector2 m_nextAngleAndMagnitude;
@@ -23,6 +25,10 @@ public class MotionKey {
     private transient boolean m_bCoefficientsDirty;
     private transient CubicCoefficients1D m_xCoeff;
     private transient CubicCoefficients1D m_yCoeff;
+    private transient boolean m_bNextSegmentXLinear;  // time advances evenly across the segment to the next key
+    private transient double m_splineSlope;   // slope solved for the run of spline keys holding this key
+    private transient double m_splineFactor;  // scratch for the forward sweep of the solve
+    private transient boolean m_bSplineDirty;
 
     public MotionKey() {
         m_timeAndValue = new Vector2(0, 0);
@@ -36,6 +42,7 @@ public class MotionKey {
         m_nextAngleAndMagnitude.set(0, 1);
         m_bTangentsDirty = true;
         m_bCoefficientsDirty = true;
+        m_bSplineDirty = true;
         m_prevSlopeMethod = SlopeMethod.SLOPE_SMOOTH;
         m_nextSlopeMethod = SlopeMethod.SLOPE_SMOOTH;
         m_markBeginOrEndKeysToZeroSlope = true;
@@ -46,6 +53,8 @@ public class MotionKey {
 
     public void onPositionChanged() {
         getMotionCurve().onKeyPositionChanged(this);  // tell the curve too
+        if (getMotionCurve().isEditing())
+            return;  // the curve recomputes the whole edited span once the edit is finished
 
         setTangentsDirty(true);
         setCoefficientsDirty(true);
@@ -53,19 +62,31 @@ public class MotionKey {
         if (getPrevKey() != null) {
             getPrevKey().setTangentsDirty(true);
             getPrevKey().setCoefficientsDirty(true);
-            if (getPrevKey().getPrevKey() != null && getPrevKey().getPrevKey().getNextSlopeMethod() == SLOPE_PLATEAU) {  // Need to go two away if it is Plateau because they use Prev and Next Tangents
-                getPrevKey().getPrevKey().setTangentsDirty(true);
-                getPrevKey().getPrevKey().setCoefficientsDirty(true);
+            if (getPrevKey().getPrevKey() != null) {
+                getPrevKey().getPrevKey().setCoefficientsDirty(true);  // its segment ends on the prev key's prev tangent, which depends on this key
+                if (getPrevKey().getPrevKey().getNextSlopeMethod() == SLOPE_PLATEAU)  // Need to go two away if it is Plateau because they use Prev and Next Tangents
+                    getPrevKey().getPrevKey().setTangentsDirty(true);
             }
         }
 
         if (getNextKey() != null) {
             getNextKey().setTangentsDirty(true);
+            getNextKey().setCoefficientsDirty(true);  // its segment starts on the next key's next tangent, which depends on this key
             if (getNextKey().getNextKey() != null && getNextKey().getNextKey().getPrevSlopeMethod() == SLOPE_PLATEAU) {  // Need to go two away if it is Plateau because they use Prev and Next Tangents
                 getNextKey().getNextKey().setTangentsDirty(true);
-                getNextKey().setCoefficientsDirty(true);
+                getNextKey().getNextKey().setCoefficientsDirty(true);
             }
         }
+
+        // a spline key's slope depends on every key of its run, and a key that is not one may have split a run
+        if (isSplineKey())
+            markSplineRunDirty();
+        else {
+            if (getPrevKey() != null)
+                getPrevKey().markSplineRunDirty();
+            if (getNextKey() != null)
+                getNextKey().markSplineRunDirty();
+        }
     }
 
     public double getTime() {
@@ -73,7 +94,9 @@ public class MotionKey {
     }
 
     public void setTime(double time) {
+        double oldTime = getTime();
         m_timeAndValue.setX(time);
+        getMotionCurve().onKeyTimeChanged(this, oldTime);
         onPositionChanged();
     }
 
@@ -107,7 +130,9 @@ public class MotionKey {
     }
 
     public void setTimeAndValue(Vector2 m_timeAndValue) {
+        double oldTime = getTime();
         this.m_timeAndValue = m_timeAndValue;
+        getMotionCurve().onKeyTimeChanged(this, oldTime);
         onPositionChanged();
     }
 
@@ -157,6 +182,28 @@ public class MotionKey {
         this.m_nextTangent = m_NextTangent;
     }
 
+    /**
+     * The slope of the prev tangent, 0 after a stepped segment where the tangent is left at (0, 0).
+     */
+    double getPrevSlope() {
+        return slopeOf(getPrevTangent(), m_prevKey != null && m_prevKey.isNextSegmentStepped());
+    }
+
+    /**
+     * The slope of the next tangent, 0 when the next segment is stepped and the tangent is left at (0, 0).
+     */
+    double getNextSlope() {
+        return slopeOf(getNextTangent(), isNextSegmentStepped());
+    }
+
+    private boolean isNextSegmentStepped() {
+        return m_nextSlopeMethod == SlopeMethod.SLOPE_STEPPED || m_nextSlopeMethod == SlopeMethod.SLOPE_STEPPED_NEXT;
+    }
+
+    private static double slopeOf(Vector2 tangent, boolean stepped) {
+        return stepped && tangent.getX() == 0 ? 0 : tangent.getY() / tangent.getX();
+    }
+
     public MotionCurve getMotionCurve() {
         return m_motionCurve;
     }
@@ -186,7 +233,10 @@ public class MotionKey {
     }
 
     public void setPrevSlopeMethod(SlopeMethod slopeMethod) {
+        boolean splineChanged = (slopeMethod == SLOPE_SPLINE) != (m_prevSlopeMethod == SLOPE_SPLINE);
         m_prevSlopeMethod = slopeMethod;
+        if (splineChanged && m_motionCurve != null)
+            onPositionChanged();  // joins or splits spline runs, which have to be solved again
     }
 
     public SlopeMethod getNextSlopeMethod() {
@@ -194,7 +244,10 @@ public class MotionKey {
     }
 
     public void setNextSlopeMethod(SlopeMethod slopeMethod) {
+        boolean splineChanged = (slopeMethod == SLOPE_SPLINE) != (m_nextSlopeMethod == SLOPE_SPLINE);
         m_nextSlopeMethod = slopeMethod;
+        if (splineChanged && m_motionCurve != null)
+            onPositionChanged();  // joins or splits spline runs, which have to be solved again
     }
 
     public double getPrevMagnitude() {
@@ -205,6 +258,27 @@ public class MotionKey {
         return m_nextAngleAndMagnitude.getY();
     }
 
+    /**
+     * The angle and magnitude of a manual tangent with the given slope, which advances time evenly across a segment
+     * of the given span.  Manual tangents are not scaled by the span of their segment, so the magnitude carries it, and
+     * segments with such tangents at both ends are evaluated as plain cubics without inverting x.
+     */
+    static Vector2 slopeAngleAndMagnitude(double slope, double span) {
+        return new Vector2(Math.atan(slope), span * Math.sqrt(1 + slope * slope));
+    }
+
+    // the angle and magnitude of a manual tangent equal to the tangent (x, y)
+    static Vector2 tangentAngleAndMagnitude(double x, double y) {
+        return new Vector2(Math.atan2(y, x), Math.hypot(x, y));
+    }
+
+    // whether the x cubic of the segment to the next key is linear, so time maps straight onto its parameter
+    boolean isNextSegmentXLinear() {
+        if (areCoefficientsDirty())
+            calculateCoefficients();
+        return m_bNextSegmentXLinear;
+    }
+
     void insertBefore(MotionKey newKey) {
         m_prevKey = newKey.m_prevKey;
         if (newKey.m_prevKey != null)
@@ -221,6 +295,93 @@ public class MotionKey {
         m_prevKey = newKey;
     }
 
+    boolean isSplineKey() {
+        return m_prevSlopeMethod == SLOPE_SPLINE || m_nextSlopeMethod == SLOPE_SPLINE;
+    }
+
+    void setSplineDirty() {
+        m_bSplineDirty = true;
+    }
+
+    // marks every key of the run of spline keys holding this key, keys outside the run keep their tangents
+    void markSplineRunDirty() {
+        if (!isSplineKey())
+            return;
+
+        MotionKey first = this;
+        while (first.m_prevKey != null && first.m_prevKey.isSplineKey())
+            first = first.m_prevKey;
+        if (first.m_prevKey != null)
+            first.m_prevKey.setCoefficientsDirty(true);  // its segment ends on the first key's prev tangent
+
+        for (MotionKey key = first; key != null && key.isSplineKey(); key = key.m_nextKey) {
+            key.m_bSplineDirty = true;
+            key.setTangentsDirty(true);
+            key.setCoefficientsDirty(true);
+        }
+    }
+
+    // a lone spline key has no run to solve and is given smooth tangents instead
+    private boolean hasSplineNeighbour() {
+        return (m_prevKey != null && m_prevKey.isSplineKey()) || (m_nextKey != null && m_nextKey.isSplineKey());
+    }
+
+    // solves the natural cubic spline through the run of spline keys holding this key, the slopes that make the second
+    // derivative continuous at every key of the run and zero at both of its ends.  With h and d the span and secant
+    // slope of each segment, key i gives the row
+    //   h(i) m(i-1) + 2 (h(i-1) + h(i)) m(i) + h(i-1) m(i+1) = 3 (h(i) d(i-1) + h(i-1) d(i))
+    // and the tridiagonal system is solved with one forward and one backward sweep over the keys.
+    private void solveSplineRun() {
+        MotionKey first = this;
+        while (first.m_prevKey != null && first.m_prevKey.isSplineKey())
+            first = first.m_prevKey;
+
+        double prevSpan = 0;
+        double prevSecant = 0;
+        double prevFactor = 0;
+        double prevSlope = 0;
+        MotionKey key = first;
+        while (true) {
+            boolean hasNext = key.m_nextKey != null && key.m_nextKey.isSplineKey();
+            double span = hasNext ? key.m_nextKey.getTime() - key.getTime() : 0;
+            double secant = span > 0 ? (key.m_nextKey.getValue() - key.getValue()) / span : 0;
+
+            double a, b, c, r;
+            if (key == first) {
+                a = 0;
+                b = 2;
+                c = 1;
+                r = 3 * secant;
+            } else if (!hasNext) {
+                a = 1;
+                b = 2;
+                c = 0;
+                r = 3 * prevSecant;
+            } else {
+                a = span;
+                b = 2 * (prevSpan + span);
+                c = prevSpan;
+                r = 3 * (span * prevSecant + prevSpan * secant);
+            }
+
+            double pivot = b - a * prevFactor;
+            key.m_splineFactor = c / pivot;
+            key.m_splineSlope = (r - a * prevSlope) / pivot;
+            key.m_bSplineDirty = false;
+            if (!hasNext)
+                break;
+
+            prevSpan = span;
+            prevSecant = secant;
+            prevFactor = key.m_splineFactor;
+            prevSlope = key.m_splineSlope;
+            key = key.m_nextKey;
+        }
+
+        for (; key != first; key = key.m_prevKey)
+            key.m_prevKey.m_splineSlope -= key.m_prevKey.m_splineFactor * key.m_splineSlope;
+    }
+
     private void calculateTangents() {
         setTangentsDirty(false);
 
@@ -229,13 +390,12 @@ public class MotionKey {
 
         switch (getPrevSlopeMethod()) {
             case SLOPE_MANUAL:
+                // manual tangents are not scaled by the span, only by the magnitude below
                 m_prevTangent.set(Math.cos(getPrevAngleAndMagnitude().getX()), Math.sin(getPrevAngleAndMagnitude().getX()));
-                if (m_prevKey != null)
-                    Vector2.Companion.multiply(m_prevTangent, getTimeAndValue().getX() - m_prevKey.getTimeAndValue().getX());
                 break;
             case SLOPE_LINEAR:
                 if (m_prevKey != null)
-                    m_prevTangent = Vector2.Companion.subtract(getTimeAndValue(), m_prevKey.getTimeAndValue());
+                    m_prevTangent.set(getTime() - m_prevKey.getTime(), getValue() - m_prevKey.getValue());
                 break;
             case SLOPE_FLAT:
                 if (m_prevKey != null)
@@ -269,20 +429,14 @@ public class MotionKey {
                     double fPrevTangentValue;
                     if (m_prevKey.getNextSlopeMethod() == SLOPE_PLATEAU)
                         fPrevTangentValue = m_prevKey.getValue(); // This way we don't get an infinite recursion
-                    else {
-                        Vector2 vPrevPos = m_prevKey.getTimeAndValue();
-                        Vector2 vPrevTangent = Vector2.Companion.add(Vector2.Companion.multiply(m_prevKey.getNextTangent(), 1.0 / 3.0), vPrevPos);
-                        fPrevTangentValue = vPrevTangent.getY();
-                    }
+                    else
+                        fPrevTangentValue = m_prevKey.getValue() + m_prevKey.getNextTangent().getY() / 3.0;
 
                     double fNextTangentValue;
                     if (m_nextKey.getPrevSlopeMethod() == SLOPE_PLATEAU)
                         fNextTangentValue = m_nextKey.getValue(); // This way we don't get an infinite recursion
-                    else {
-                        Vector2 vNextPos = m_nextKey.getTimeAndValue();
-                        Vector2 vNextTangent = Vector2.Companion.subtract(vNextPos, Vector2.Companion.multiply(m_nextKey.getPrevTangent(), 1.0 / 3.0));
-                        fNextTangentValue = vNextTangent.getY();
-                    }
+                    else
+                        fNextTangentValue = m_nextKey.getValue() - m_nextKey.getPrevTangent().getY() / 3.0;
 
                     double fValue = getValue();
                     if (fPrevTangentValue > fValue && fNextTangentValue > fValue)
@@ -293,6 +447,16 @@ public class MotionKey {
                         bCalcSmoothPrev = true;
                 }
                 break;
+            case SLOPE_SPLINE:
+                if (!hasSplineNeighbour())
+                    bCalcSmoothPrev = true;
+                else {
+                    if (m_bSplineDirty)
+                        solveSplineRun();
+                    double span = m_prevKey != null ? getTime() - m_prevKey.getTime() : m_nextKey.getTime() - getTime();
+                    m_prevTangent.set(span, m_splineSlope * span);
+                }
+                break;
             case SLOPE_STEPPED:
             case SLOPE_STEPPED_NEXT:
                 assert (false); // Not a valid method for PREV Interp Method, it is only valid for NEXT key direction
@@ -302,12 +466,10 @@ public class MotionKey {
         switch (getNextSlopeMethod()) {
             case SLOPE_MANUAL:
                 m_nextTangent.set(Math.cos(getNextAngleAndMagnitude().getX()), Math.sin(getNextAngleAndMagnitude().getX()));
-                if (m_nextKey != null)
-                    Vector2.Companion.multiply(m_nextTangent, m_nextKey.getTimeAndValue().getX() - getTimeAndValue().getX());
                 break;
             case SLOPE_LINEAR:
                 if (m_nextKey != null)
-                    m_nextTangent = Vector2.Companion.subtract(m_nextKey.getTimeAndValue(), getTimeAndValue());
+                    m_nextTangent.set(m_nextKey.getTime() - getTime(), m_nextKey.getValue() - getValue());
                 break;
             case SLOPE_FLAT:
                 if (m_nextKey != null)
@@ -341,20 +503,14 @@ public class MotionKey {
                     double fPrevTangentValue;
                     if (m_prevKey.getNextSlopeMethod() == SLOPE_PLATEAU)
                         fPrevTangentValue = m_prevKey.getValue(); // This way we don't get an infinite recursion
-                    else {
-                        Vector2 vPrevPos = new Vector2(m_prevKey.getTime(), m_prevKey.getValue());
-                        Vector2 vPrevTangent = Vector2.Companion.add(Vector2.Companion.multiply(m_prevKey.getNextTangent(), 1.0 / 3.0), vPrevPos);
-                        fPrevTangentValue = vPrevTangent.getY();
-                    }
+                    else
+                        fPrevTangentValue = m_prevKey.getValue() + m_prevKey.getNextTangent().getY() / 3.0;
 
                     double fNextTangentValue;
                     if (m_nextKey.getPrevSlopeMethod() == SLOPE_PLATEAU)
                         fNextTangentValue = m_nextKey.getValue(); // This way we don't get an infinite recursion
-                    else {
-                        Vector2 vNextPos = new Vector2(m_nextKey.getTime(), m_nextKey.getValue());
-                        Vector2 vNextTangent = Vector2.Companion.subtract(vNextPos, Vector2.Companion.multiply(m_nextKey.getPrevTangent(), 1.0 / 3.0));
-                        fNextTangentValue = vNextTangent.getY();
-                    }
+                    else
+                        fNextTangentValue = m_nextKey.getValue() - m_nextKey.getPrevTangent().getY() / 3.0;
 
                     double fValue = getValue();
                     if (fPrevTangentValue > fValue && fNextTangentValue > fValue)
@@ -365,6 +521,16 @@ public class MotionKey {
                         bCalcSmoothNext = true;
                 }
                 break;
+            case SLOPE_SPLINE:
+                if (!hasSplineNeighbour())
+                    bCalcSmoothNext = true;
+                else {
+                    if (m_bSplineDirty)
+                        solveSplineRun();
+                    double span = m_nextKey != null ? m_nextKey.getTime() - getTime() : getTime() - m_prevKey.getTime();
+                    m_nextTangent.set(span, m_splineSlope * span);
+                }
+                break;
             case SLOPE_STEPPED:
             case SLOPE_STEPPED_NEXT:
                 break; // nothing to do, no tangents
@@ -372,8 +538,9 @@ public class MotionKey {
 
         if (bCalcSmoothPrev || bCalcSmoothNext) {
             if (m_prevKey != null && m_nextKey != null) {
-                Vector2 delta = Vector2.Companion.subtract(m_nextKey.getTimeAndValue(), m_prevKey.getTimeAndValue());
-                double weight = Math.abs(delta.getX());
+                double deltaX = m_nextKey.getTime() - m_prevKey.getTime();
+                double deltaY = m_nextKey.getValue() - m_prevKey.getValue();
+                double weight = Math.abs(deltaX);
                 if (weight == 0) // if keys are on top of one another (no tangents)
                 {
                     if (bCalcSmoothPrev)
@@ -381,38 +548,41 @@ public class MotionKey {
                     if (bCalcSmoothNext)
                         m_nextTangent.set(0, 0);
                 } else {
-                    delta = Vector2.Companion.divide(delta, weight);
+                    deltaX /= weight;
+                    deltaY /= weight;
 
                     if (bCalcSmoothPrev) {
-                        double prevWeight = getTimeAndValue().getX() - m_prevKey.getTimeAndValue().getX();
-                        m_prevTangent = Vector2.Companion.multiply(delta, prevWeight);
+                        double prevWeight = getTime() - m_prevKey.getTime();
+                        m_prevTangent.set(deltaX * prevWeight, deltaY * prevWeight);
                     }
                     if (bCalcSmoothNext) {
-                        double nextWeight = m_nextKey.getTimeAndValue().getX() - getTimeAndValue().getX();
-                        m_nextTangent = Vector2.Companion.multiply(delta, nextWeight);
+                        double nextWeight = m_nextKey.getTime() - getTime();
+                        m_nextTangent.set(deltaX * nextWeight, deltaY * nextWeight);
                     }
                 }
             } else {
                 if (m_nextKey != null) {
                     if (bCalcSmoothPrev)
-                        m_prevTangent = Vector2.Companion.subtract(m_nextKey.getTimeAndValue(), getTimeAndValue());
+                        m_prevTangent.set(m_nextKey.getTime() - getTime(), m_nextKey.getValue() - getValue());
 
                     if (bCalcSmoothNext)
-                        m_nextTangent = Vector2.Companion.subtract(m_nextKey.getTimeAndValue(), getTimeAndValue());
+                        m_nextTangent.set(m_nextKey.getTime() - getTime(), m_nextKey.getValue() - getValue());
                 }
 
                 if (m_prevKey != null) {
                     if (bCalcSmoothPrev)
-                        m_prevTangent = Vector2.Companion.subtract(getTimeAndValue(), m_prevKey.getTimeAndValue());
+                        m_prevTangent.set(getTime() - m_prevKey.getTime(), getValue() - m_prevKey.getValue());
 
                     if (bCalcSmoothNext)
-                        m_nextTangent = Vector2.Companion.subtract(getTimeAndValue(), m_prevKey.getTimeAndValue());
+                        m_nextTangent.set(getTime() - m_prevKey.getTime(), getValue() - m_prevKey.getValue());
                 }
             }
         }
 
-        m_prevTangent = Vector2.Companion.multiply(m_prevTangent, getPrevAngleAndMagnitude().getY()); // / 3.0 it seems like this is more of a UI only thing, and shouldn't really be done in this case.  But maybe I'm wrong.  Subtract the points, then take a third to get a good default tangent.  Does that still appear too long in the UI?  So we divide by 3 again.
-        m_nextTangent = Vector2.Companion.multiply(m_nextTangent, getNextAngleAndMagnitude().getY()); // / 3.0
+        double prevMagnitude = getPrevAngleAndMagnitude().getY();
+        m_prevTangent.set(m_prevTangent.getX() * prevMagnitude, m_prevTangent.getY() * prevMagnitude); // / 3.0 it seems like this is more of a UI only thing, and shouldn't really be done in this case.  But maybe I'm wrong.  Subtract the points, then take a third to get a good default tangent.  Does that still appear too long in the UI?  So we divide by 3 again.
+        double nextMagnitude = getNextAngleAndMagnitude().getY();
+        m_nextTangent.set(m_nextTangent.getX() * nextMagnitude, m_nextTangent.getY() * nextMagnitude); // / 3.0
     }
 
     public CubicCoefficients1D getXCoefficients() {
@@ -441,15 +611,22 @@ public class MotionKey {
         double pointcy = getNextTangent().getY();
         double pointdy = m_nextKey.getPrevTangent().getY();
 
-        m_yCoeff = new CubicCoefficients1D(pointay, pointby, pointcy, pointdy);
+        if (m_yCoeff == null)
+            m_yCoeff = new CubicCoefficients1D(pointay, pointby, pointcy, pointdy);
+        else
+            m_yCoeff.set(pointay, pointby, pointcy, pointdy);
 
-        // if the weights are default, then the x cubic is linear and there is no need to evaluate it
-        if (getNextMagnitude() == 1.0f && m_nextKey.getPrevMagnitude() == 1.0f)
+        // if the weights are default, or both tangents advance time at the rate of the span, then the x cubic is
+        // linear and there is no need to evaluate it
+        double pointcx = getNextTangent().getX();
+        double pointdx = m_nextKey.getPrevTangent().getX();
+        m_bNextSegmentXLinear = getNextMagnitude() == 1.0f && m_nextKey.getPrevMagnitude() == 1.0f
+                || Math.abs(pointcx - xspan) <= XLINEARTOLERANCE * xspan
+                && Math.abs(pointdx - xspan) <= XLINEARTOLERANCE * xspan;
+        if (m_bNextSegmentXLinear)
             return;
 
         // Spline - non default tangents means that we need a second parametric cubic for x as a function of t
-        double pointcx = getNextTangent().getX();
-        double pointdx = m_nextKey.getPrevTangent().getX();
 
         double xspan3 = xspan * 3;
 
@@ -465,7 +642,10 @@ public class MotionKey {
             pointdx = xspan3;
         }
 
-        m_xCoeff = new CubicCoefficients1D(pointax, pointbx, pointcx, pointdx);
+        if (m_xCoeff == null)
+            m_xCoeff = new CubicCoefficients1D(pointax, pointbx, pointcx, pointdx);
+        else
+            m_xCoeff.set(pointax, pointbx, pointcx, pointdx);
     }
 
     public boolean getMarkbeginOrEndKeysToZeroSlope() {
@@ -486,7 +666,8 @@ public class MotionKey {
 
     public enum SlopeMethod {
         SLOPE_MANUAL, SLOPE_LINEAR, SLOPE_FLAT, SLOPE_SMOOTH, SLOPE_CLAMPED, SLOPE_PLATEAU,
-        SLOPE_STEPPED, SLOPE_STEPPED_NEXT
+        SLOPE_STEPPED, SLOPE_STEPPED_NEXT,
+        SLOPE_SPLINE  // natural cubic spline through each run of consecutive spline keys, continuous in acceleration
     }
 
     public void setMagnitude(double magnitude) {
@@ -5,6 +5,9 @@ import java.util.ArrayList;
 public class MotionProfileAnimation {
 
     ArrayList<MotionProfileCurve> m_listMotionProfileCurves;
+    private MotionCurveBatch m_batch;  // all the curves compiled together, rebuilt when one of them is edited
+    private int[] m_batchRevisions;
+    private double[] m_values;
 
     public MotionProfileAnimation() {
         m_listMotionProfileCurves = new ArrayList<MotionProfileCurve>(0);
@@ -33,9 +36,27 @@ public class MotionProfileAnimation {
     }
 
     public void play(double time) {
-        for (MotionProfileCurve curve : m_listMotionProfileCurves) {
-            curve.play(time);
+        MotionCurveBatch batch = getBatch();
+        batch.getValues(time, m_values);
+        for (int i = 0; i < m_values.length; i++) {
+            m_listMotionProfileCurves.get(i).play(time, m_values[i]);
+        }
+    }
+
+    private MotionCurveBatch getBatch() {
+        int curveCount = m_listMotionProfileCurves.size();
+        boolean stale = m_batch == null || m_batch.getChannelCount() != curveCount;
+        for (int i = 0; i < curveCount && !stale; i++)
+            stale = m_listMotionProfileCurves.get(i).getRevision() != m_batchRevisions[i];
+
+        if (stale) {
+            m_batch = new MotionCurveBatch(m_listMotionProfileCurves.toArray(new MotionCurve[0]));
+            m_batchRevisions = new int[curveCount];
+            for (int i = 0; i < curveCount; i++)
+                m_batchRevisions[i] = m_listMotionProfileCurves.get(i).getRevision();
+            m_values = new double[curveCount];
         }
+        return m_batch;
     }
 
     public void stop() {
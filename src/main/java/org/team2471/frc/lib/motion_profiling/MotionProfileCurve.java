@@ -17,8 +17,13 @@ public class MotionProfileCurve extends MotionCurve {
     }
 
     public void play(double time) {
-        pidInterface.setSetpoint(getValue(time) + offset);
-        System.out.println("Time: " + time + " Value: " + getValue(time));
+        play(time, getValue(time));
+    }
+
+    // the value at time, already sampled by the animation playing this curve
+    void play(double time, double value) {
+        pidInterface.setSetpoint(value + offset);
+        System.out.println("Time: " + time + " Value: " + value);
     }
 
     public void stop() {
@@ -0,0 +1,33 @@
+package org.team2471.frc.lib.motion_profiling;
+
+/**
+ * The value of a {@link MotionCurve} at one time together with its first and second derivatives with respect to
+ * time.  Meant to be allocated once by the caller and refilled every tick.
+ */
+public final class MotionSample {
+    private double m_value;
+    private double m_derivative;
+    private double m_secondDerivative;
+
+    public double getValue() {
+        return m_value;
+    }
+
+    public double getDerivative() {
+        return m_derivative;
+    }
+
+    public double getSecondDerivative() {
+        return m_secondDerivative;
+    }
+
+    void set(double value, double derivative, double secondDerivative) {
+        m_value = value;
+        m_derivative = derivative;
+        m_secondDerivative = secondDerivative;
+    }
+
+    public String toString() {
+        return "<" + m_value + ", " + m_derivative + ", " + m_secondDerivative + ">";
+    }
+}
@@ -0,0 +1,245 @@
+package org.team2471.frc.lib.motion_profiling;
+
+import java.util.Arrays;
+
+/**
+ * A {@link MotionCurve} with its keys ranked by how much detail they add, so a coarser copy can be cut at any error.
+ * <p>
+ * The keys are refined Douglas-Peucker style: starting from the head and tail, each span between kept keys is drawn
+ * as one cubic Hermite using the slopes of the curve at its end keys, and the key where that cubic misses the curve
+ * the most splits it.  Errors are measured at the keys and at a few evenly spaced points in every segment.  Every key
+ * is annotated with the error of the span it splits, raised to at least the annotations of the keys refining it, so
+ * the keys annotated above an error always form a valid level of the hierarchy and the curve built from them stays
+ * within that error.  Consumers such as a plot can then fetch only as many keys as the pixels they cover need, for the
+ * whole curve or a window of it.
+ */
+public final class MultiResolutionMotionCurve {
+    static final int CHECKS_PER_SEGMENT = 8;
+
+    private final CompiledMotionCurve m_curve;
+    private final double[] m_tangents;  // x and y of the prev then the next tangent of each key
+    private final double[] m_slopes;    // slope of the curve arriving at then leaving each key
+    private final double[] m_errors;    // the error removing each key would add, infinite for the head and tail
+    private final double m_defaultValue;
+    private final MotionCurve.ExtrapolationMethods m_preExtrapolation;
+    private final MotionCurve.ExtrapolationMethods m_postExtrapolation;
+
+    MultiResolutionMotionCurve(MotionCurve motionCurve) {
+        m_curve = motionCurve.compile();
+        m_defaultValue = motionCurve.getDefaultValue();
+        m_preExtrapolation = motionCurve.getPreExtrapolation();
+        m_postExtrapolation = motionCurve.getPostExtrapolation();
+
+        int keyCount = m_curve.getKeyCount();
+        m_tangents = new double[keyCount * 4];
+        int i = 0;
+        for (MotionKey key = motionCurve.getHeadKey(); key != null; key = key.getNextKey(), i++) {
+            m_tangents[i * 4] = key.getPrevTangent().getX();
+            m_tangents[i * 4 + 1] = key.getPrevTangent().getY();
+            m_tangents[i * 4 + 2] = key.getNextTangent().getX();
+            m_tangents[i * 4 + 3] = key.getNextTangent().getY();
+        }
+
+        m_slopes = new double[keyCount * 2];
+        for (int segment = 0; segment < keyCount - 1; segment++) {
+            m_slopes[segment * 2 + 1] = segmentSlope(segment, m_tangents[segment * 4 + 2], m_tangents[segment * 4 + 3]);
+            m_slopes[segment * 2 + 2] = segmentSlope(segment, m_tangents[segment * 4 + 4], m_tangents[segment * 4 + 5]);
+        }
+        if (keyCount > 1) {
+            m_slopes[0] = m_slopes[1];
+            m_slopes[keyCount * 2 - 1] = m_slopes[keyCount * 2 - 2];
+        }
+
+        m_errors = new double[keyCount];
+        if (keyCount > 0) {
+            m_errors[0] = Double.POSITIVE_INFINITY;
+            m_errors[keyCount - 1] = Double.POSITIVE_INFINITY;
+        }
+
+        // split spans from the top down with an explicit stack, as a long curve would recurse too deeply
+        int[] parents = new int[keyCount];
+        int[] splitOrder = new int[keyCount];
+        int splitCount = 0;
+        int[] stack = new int[Math.max(keyCount * 3, 3)];
+        int stackSize = 0;
+        if (keyCount > 2) {
+            stack[stackSize++] = 0;
+            stack[stackSize++] = keyCount - 1;
+            stack[stackSize++] = -1;
+        }
+        double[] spanError = new double[1];
+        while (stackSize > 0) {
+            int parent = stack[--stackSize];
+            int last = stack[--stackSize];
+            int first = stack[--stackSize];
+            int split = measureSpan(first, last, spanError);
+            m_errors[split] = spanError[0];
+            parents[split] = parent;
+            splitOrder[splitCount++] = split;
+            if (split - first > 1) {
+                stack[stackSize++] = first;
+                stack[stackSize++] = split;
+                stack[stackSize++] = split;
+            }
+            if (last - split > 1) {
+                stack[stackSize++] = split;
+                stack[stackSize++] = last;
+                stack[stackSize++] = split;
+            }
+        }
+
+        // children were split after their parents, so walking back carries every error up to the root
+        for (int split = splitCount - 1; split >= 0; split--) {
+            int parent = parents[splitOrder[split]];
+            if (parent >= 0)
+                m_errors[parent] = Math.max(m_errors[parent], m_errors[splitOrder[split]]);
+        }
+    }
+
+    // puts the largest miss of the hermite across first..last in error and returns the interior key that misses most
+    private int measureSpan(int first, int last, double[] error) {
+        error[0] = 0;
+        int split = (first + last) >>> 1;
+        double splitError = 0;
+        for (int segment = first; segment < last; segment++) {
+            double startTime = m_curve.getKeyTime(segment);
+            double span = m_curve.getKeyTime(segment + 1) - startTime;
+            for (int check = segment == first ? 1 : 0; check < CHECKS_PER_SEGMENT; check++) {
+                double time = startTime + span * check / CHECKS_PER_SEGMENT;
+                double miss = Math.abs(hermite(first, last, time) - m_curve.getValue(time));
+                error[0] = Math.max(error[0], miss);
+                if (check == 0 && miss > splitError) {
+                    split = segment;
+                    splitError = miss;
+                }
+            }
+        }
+        return split;
+    }
+
+    // the slope at an end of a segment with the given tangent there, only weighted segments use the x of their tangents
+    private double segmentSlope(int segment, double x, double y) {
+        double span = m_curve.getKeyTime(segment + 1) - m_curve.getKeyTime(segment);
+        switch (m_curve.getSegmentType(segment)) {
+            case CompiledMotionCurve.SEGMENT_STEPPED:
+            case CompiledMotionCurve.SEGMENT_STEPPED_NEXT:
+                return 0;
+            case CompiledMotionCurve.SEGMENT_LINEAR:
+                return (m_curve.getKeyValue(segment + 1) - m_curve.getKeyValue(segment)) / span;
+            case CompiledMotionCurve.SEGMENT_CUBIC:
+                return y / span;
+            default:
+                return y / x;
+        }
+    }
+
+    private double hermite(int first, int last, double time) {
+        double startTime = m_curve.getKeyTime(first);
+        double span = m_curve.getKeyTime(last) - startTime;
+        double u = (time - startTime) / span;
+        double m0 = m_slopes[first * 2 + 1] * span;
+        double m1 = m_slopes[last * 2] * span;
+        double u2 = u * u;
+        double u3 = u2 * u;
+        return (2 * u3 - 3 * u2 + 1) * m_curve.getKeyValue(first) + (u3 - 2 * u2 + u) * m0
+                + (-2 * u3 + 3 * u2) * m_curve.getKeyValue(last) + (u3 - u2) * m1;
+    }
+
+    public int getKeyCount() {
+        return m_errors.length;
+    }
+
+    /**
+     * The error the curve would gain without the key at index, infinite for the head and tail keys.
+     */
+    public double getKeyError(int index) {
+        return m_errors[index];
+    }
+
+    /**
+     * The number of keys in the curve returned by {@link #getMotionCurve(double)} for maxError.
+     */
+    public int getKeyCount(double maxError) {
+        int count = 0;
+        for (double error : m_errors) {
+            if (error > maxError)
+                count++;
+        }
+        return count;
+    }
+
+    /**
+     * The coarsest level of the curve within maxError of the full curve.  Segments that are kept whole get their
+     * original tangents, so a maxError of zero gives back the full curve.
+     */
+    public MotionCurve getMotionCurve(double maxError) {
+        return getMotionCurve(maxError, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * The detail of the curve between t0 and t1 within maxError, from the last kept key at or before t0 to the first
+     * at or after t1.
+     */
+    public MotionCurve getMotionCurve(double maxError, double t0, double t1) {
+        if (t0 > t1)
+            throw new IllegalArgumentException("t0 must not be after t1, got " + t0 + " and " + t1);
+
+        MotionCurve motionCurve = new MotionCurve();
+        motionCurve.setDefaultValue(m_defaultValue);
+        motionCurve.setPreExtrapolation(m_preExtrapolation);
+        motionCurve.setPostExtrapolation(m_postExtrapolation);
+        int keyCount = m_errors.length;
+        if (keyCount == 0)
+            return motionCurve;
+
+        int first = 0;
+        for (int i = 0; i < keyCount && m_curve.getKeyTime(i) <= t0; i++) {
+            if (m_errors[i] > maxError)
+                first = i;
+        }
+        int last = keyCount - 1;
+        for (int i = keyCount - 1; i >= 0 && m_curve.getKeyTime(i) >= t1; i--) {
+            if (m_errors[i] > maxError)
+                last = i;
+        }
+
+        int[] kept = new int[last - first + 1];
+        int keptCount = 0;
+        for (int i = first; i <= last; i++) {
+            if (i == first || i == last || m_errors[i] > maxError)
+                kept[keptCount++] = i;
+        }
+        kept = Arrays.copyOf(kept, keptCount);
+
+        motionCurve.beginEdit();
+        for (int index : kept)
+            motionCurve.appendKey(m_curve.getKeyTime(index), m_curve.getKeyValue(index));
+
+        // spans standing in for several segments get the slopes at their ends, weighted segments kept whole are copied
+        int k = 0;
+        for (MotionKey key = motionCurve.getHeadKey(); key != null; key = key.getNextKey(), k++) {
+            int index = kept[k];
+            double prevSpan = k > 0 ? m_curve.getKeyTime(index) - m_curve.getKeyTime(kept[k - 1]) : 1;
+            double nextSpan = k < keptCount - 1 ? m_curve.getKeyTime(kept[k + 1]) - m_curve.getKeyTime(index) : 1;
+            if (k > 0 && kept[k - 1] == index - 1 && m_curve.getSegmentType(index - 1) == CompiledMotionCurve.SEGMENT_WEIGHTED)
+                key.setPrevAngleAndMagnitude(
+                        MotionKey.tangentAngleAndMagnitude(m_tangents[index * 4], m_tangents[index * 4 + 1]));
+            else
+                key.setPrevAngleAndMagnitude(MotionKey.slopeAngleAndMagnitude(m_slopes[index * 2], prevSpan));
+
+            int segmentType = k < keptCount - 1 && kept[k + 1] == index + 1 ? m_curve.getSegmentType(index) : CompiledMotionCurve.SEGMENT_CUBIC;
+            if (segmentType == CompiledMotionCurve.SEGMENT_STEPPED)
+                key.setNextSlopeMethod(MotionKey.SlopeMethod.SLOPE_STEPPED);
+            else if (segmentType == CompiledMotionCurve.SEGMENT_STEPPED_NEXT)
+                key.setNextSlopeMethod(MotionKey.SlopeMethod.SLOPE_STEPPED_NEXT);
+            else if (segmentType == CompiledMotionCurve.SEGMENT_WEIGHTED)
+                key.setNextAngleAndMagnitude(
+                        MotionKey.tangentAngleAndMagnitude(m_tangents[index * 4 + 2], m_tangents[index * 4 + 3]));
+            else
+                key.setNextAngleAndMagnitude(MotionKey.slopeAngleAndMagnitude(m_slopes[index * 2 + 1], nextSpan));
+            key.setMarkBeginOrEndKeysToZeroSlope(false);
+        }
+        motionCurve.endEdit();
+        return motionCurve;
+    }
+}
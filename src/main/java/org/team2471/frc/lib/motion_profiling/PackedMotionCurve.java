@@ -0,0 +1,279 @@
+package org.team2471.frc.lib.motion_profiling;
+
+import com.squareup.moshi.JsonAdapter;
+import com.squareup.moshi.Moshi;
+
+/**
+ * A read only {@link MotionCurve} packed into primitive arrays, for holding large libraries of curves in little memory.
+ * <p>
+ * Each key keeps its time as a double and its value as a float, and each segment its type and the slopes of its ends
+ * as a cubic Hermite in floats.  That comes to about 29 bytes a key, against several hundred for a {@link MotionKey}
+ * with its vectors and coefficient objects.  Hermite end slopes are stored rather than polynomial coefficients so the
+ * ends of every segment still meet after rounding, and the rounding can be bounded: a value or slope rounded to a
+ * float moves by at most 2^-24 of itself, and the Hermite weights of the end slopes never exceed 4/27, so the curve
+ * moves by at most 2^-24 (max(|p0|, |p1|) + 4/27 (|m0| + |m1|)) in a segment, plus the largest slope of the segment
+ * times the same bound on the x cubic for weighted segments.  {@link #getMaxError()} is the largest of these over
+ * the curve.  The x inversion of weighted segments has the same tolerance as on the source curve, and cycle relative
+ * extrapolation adds the rounding of the head and tail values once for every period.
+ * <p>
+ * Like {@link CompiledMotionCurve} this is an immutable snapshot that is safe to share between threads.
+ */
+public final class PackedMotionCurve {
+    static final double FLOAT_ROUNDING = 0x1p-24;
+    static final double MAX_TANGENT_WEIGHT = 4.0 / 27.0;  // largest magnitude of the hermite tangent basis functions
+
+    private final double[] m_times;
+    private final float[] m_values;
+    private final byte[] m_segmentTypes;  // the CompiledMotionCurve segment types
+    private final float[] m_tangents;     // y tangent out of and into each segment, then x tangents over the span
+    private final float m_defaultValue;
+    private final MotionCurve.ExtrapolationMethods m_preExtrapolation;
+    private final MotionCurve.ExtrapolationMethods m_postExtrapolation;
+    private final double m_maxError;
+
+    PackedMotionCurve(MotionCurve motionCurve) {
+        CompiledMotionCurve compiledCurve = motionCurve.compile();
+        int keyCount = compiledCurve.getKeyCount();
+        m_times = new double[keyCount];
+        m_values = new float[keyCount];
+        m_segmentTypes = new byte[Math.max(keyCount - 1, 0)];
+        m_tangents = new float[m_segmentTypes.length * 4];
+        m_defaultValue = (float) motionCurve.getDefaultValue();
+        m_preExtrapolation = motionCurve.getPreExtrapolation();
+        m_postExtrapolation = motionCurve.getPostExtrapolation();
+
+        int i = 0;
+        for (MotionKey key = motionCurve.getHeadKey(); key != null; key = key.getNextKey(), i++) {
+            m_times[i] = key.getTime();
+            m_values[i] = (float) key.getValue();
+            if (key.getNextKey() == null)
+                break;
+
+            int segmentType = compiledCurve.getSegmentType(i);
+            m_segmentTypes[i] = (byte) segmentType;
+            if (segmentType >= CompiledMotionCurve.SEGMENT_CUBIC) {
+                storeTangents(key.getYCoefficients(), 1, i * 4);
+                if (segmentType == CompiledMotionCurve.SEGMENT_WEIGHTED)
+                    storeTangents(key.getXCoefficients(), key.getNextKey().getTime() - key.getTime(), i * 4 + 2);
+            }
+        }
+
+        double maxError = 0;
+        for (int segment = 0; segment < m_segmentTypes.length; segment++) {
+            double valueError = Math.max(Math.abs(m_values[segment]), Math.abs(m_values[segment + 1]));
+            if (m_segmentTypes[segment] >= CompiledMotionCurve.SEGMENT_CUBIC)
+                valueError += MAX_TANGENT_WEIGHT * (Math.abs(m_tangents[segment * 4]) + Math.abs(m_tangents[segment * 4 + 1]));
+            if (m_segmentTypes[segment] == CompiledMotionCurve.SEGMENT_WEIGHTED) {
+                double timeError = MAX_TANGENT_WEIGHT * (Math.abs(m_tangents[segment * 4 + 2]) + Math.abs(m_tangents[segment * 4 + 3]))
+                        * (m_times[segment + 1] - m_times[segment]);
+                valueError += timeError * compiledCurve.maxAbsDerivative(m_times[segment], m_times[segment + 1]);
+            }
+            maxError = Math.max(maxError, valueError * FLOAT_ROUNDING);
+        }
+        m_maxError = maxError;
+    }
+
+    // the derivatives of the cubic at its ends, over scale so x tangents are stored relative to the span
+    private void storeTangents(CubicCoefficients1D coefficients, double scale, int offset) {
+        double a = coefficients.getA();
+        double b = coefficients.getB();
+        double c = coefficients.getC();
+        m_tangents[offset] = (float) (c / scale);
+        m_tangents[offset + 1] = (float) ((3 * a + 2 * b + c) / scale);
+    }
+
+    /**
+     * Packs a curve saved with Moshi, as it appears in the autonomous files, without keeping its keys.
+     */
+    public static PackedMotionCurve fromJsonString(String json) {
+        MotionCurve motionCurve;
+        try {
+            JsonAdapter<MotionCurve> jsonAdapter = new Moshi.Builder().build().adapter(MotionCurve.class);
+            motionCurve = jsonAdapter.fromJson(json);
+        } catch (Exception e) {
+            System.out.println("Constructing PackedMotionCurve from json failed.");
+            return null;
+        }
+        if (motionCurve == null)
+            return null;
+
+        motionCurve.fixUpTailAndPrevPointers();
+        return motionCurve.pack();
+    }
+
+    public int getKeyCount() {
+        return m_times.length;
+    }
+
+    public double getHeadTime() {
+        return m_times.length > 0 ? m_times[0] : 0;
+    }
+
+    public double getLength() {
+        return m_times.length > 0 ? m_times[m_times.length - 1] : 0;
+    }
+
+    /**
+     * A bound on how far rounding to floats moved the curve from its source, see the class comment.
+     */
+    public double getMaxError() {
+        return m_maxError;
+    }
+
+    public double getValue(double time) {
+        int keyCount = m_times.length;
+        if (keyCount == 0)
+            return m_defaultValue;
+
+        double headTime = m_times[0];
+        double tailTime = m_times[keyCount - 1];
+        double headValue = m_values[0];
+        double tailValue = m_values[keyCount - 1];
+
+        double valueOffset = 0;
+        if (time > tailTime || time < headTime) {
+            boolean post = time > tailTime;
+            MotionCurve.ExtrapolationMethods method = post ? m_postExtrapolation : m_preExtrapolation;
+            switch (method) {
+                case EXTRAPOLATION_CONSTANT:
+                    return post ? tailValue : headValue;
+                case EXTRAPOLATION_LINEAR:
+                    if (keyCount < 2)
+                        return headValue;
+                    return post ? tailValue + endSlope(keyCount - 2, true) * (time - tailTime) : headValue + endSlope(0, false) * (time - headTime);
+                default: {
+                    if (tailTime == headTime)
+                        return headValue;
+                    double periods = MotionCurve.periodCount(time, headTime, tailTime);
+                    if (method == MotionCurve.ExtrapolationMethods.EXTRAPOLATION_CYCLE_RELATIVE)
+                        valueOffset = periods * (tailValue - headValue);
+                    time = MotionCurve.periodicTime(method, time, headTime, tailTime, periods);
+                }
+            }
+        }
+
+        int index = findKeyIndex(time);
+        if (m_times[index] == time || index == keyCount - 1)
+            return valueOffset + m_values[index];
+
+        double u = solveForU(time, index);
+        switch (m_segmentTypes[index]) {
+            case CompiledMotionCurve.SEGMENT_STEPPED:
+                return valueOffset + m_values[index];
+            case CompiledMotionCurve.SEGMENT_STEPPED_NEXT:
+                return valueOffset + m_values[index + 1];
+            case CompiledMotionCurve.SEGMENT_LINEAR:
+                return valueOffset + m_values[index] + u * (m_values[index + 1] - m_values[index]);
+            default:
+                return valueOffset + hermite(m_values[index], m_values[index + 1], m_tangents[index * 4], m_tangents[index * 4 + 1], u);
+        }
+    }
+
+    public double getDerivative(double time) {
+        int keyCount = m_times.length;
+        if (keyCount < 2)
+            return 0;
+
+        double headTime = m_times[0];
+        double tailTime = m_times[keyCount - 1];
+        if (headTime == tailTime)
+            return 0;
+
+        double slopeSign = 1;
+        if (time > tailTime || time < headTime) {
+            boolean post = time > tailTime;
+            MotionCurve.ExtrapolationMethods method = post ? m_postExtrapolation : m_preExtrapolation;
+            switch (method) {
+                case EXTRAPOLATION_CONSTANT:
+                    return 0;
+                case EXTRAPOLATION_LINEAR:
+                    return post ? endSlope(keyCount - 2, true) : endSlope(0, false);
+                default: {
+                    double periods = MotionCurve.periodCount(time, headTime, tailTime);
+                    if (method == MotionCurve.ExtrapolationMethods.EXTRAPOLATION_OSCILLATE && periods % 2 != 0)
+                        slopeSign = -1;
+                    time = MotionCurve.periodicTime(method, time, headTime, tailTime, periods);
+                }
+            }
+        }
+
+        int index = findKeyIndex(time);
+        if (index == keyCount - 1)
+            return slopeSign * endSlope(index - 1, true);
+        if (m_times[index] == time)
+            return slopeSign * endSlope(index, false);
+
+        double u = solveForU(time, index);
+        double span = m_times[index + 1] - m_times[index];
+        switch (m_segmentTypes[index]) {
+            case CompiledMotionCurve.SEGMENT_STEPPED:
+            case CompiledMotionCurve.SEGMENT_STEPPED_NEXT:
+                return 0;
+            case CompiledMotionCurve.SEGMENT_LINEAR:
+                return slopeSign * (m_values[index + 1] - m_values[index]) / span;
+            default: {
+                int offset = index * 4;
+                double dy = hermiteDerivative(m_values[index], m_values[index + 1], m_tangents[offset], m_tangents[offset + 1], u);
+                double dx = m_segmentTypes[index] == CompiledMotionCurve.SEGMENT_WEIGHTED
+                        ? span * hermiteDerivative(0, 1, m_tangents[offset + 2], m_tangents[offset + 3], u) : span;
+                return slopeSign * dy / dx;
+            }
+        }
+    }
+
+    // the slope at the start or end of a segment
+    private double endSlope(int index, boolean end) {
+        double span = m_times[index + 1] - m_times[index];
+        switch (m_segmentTypes[index]) {
+            case CompiledMotionCurve.SEGMENT_STEPPED:
+            case CompiledMotionCurve.SEGMENT_STEPPED_NEXT:
+                return 0;
+            case CompiledMotionCurve.SEGMENT_LINEAR:
+                return (m_values[index + 1] - m_values[index]) / span;
+            case CompiledMotionCurve.SEGMENT_CUBIC:
+                return m_tangents[index * 4 + (end ? 1 : 0)] / span;
+            default:
+                return m_tangents[index * 4 + (end ? 1 : 0)] / (span * m_tangents[index * 4 + (end ? 3 : 2)]);
+        }
+    }
+
+    // index of the last key at or before time, the caller guarantees head <= time <= tail
+    private int findKeyIndex(double time) {
+        int low = 0;
+        int high = m_times.length - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (m_times[mid] <= time)
+                low = mid;
+            else
+                high = mid - 1;
+        }
+        return low;
+    }
+
+    // the parameter of the segment cubics at which the curve reaches time
+    private double solveForU(double time, int index) {
+        double startTime = m_times[index];
+        double span = m_times[index + 1] - startTime;
+        double guessu = (time - startTime) / span;
+        if (m_segmentTypes[index] != CompiledMotionCurve.SEGMENT_WEIGHTED)
+            return guessu;
+
+        // x runs from 0 to 1 over the segment as a hermite with the stored tangents
+        double m0 = m_tangents[index * 4 + 2];
+        double m1 = m_tangents[index * 4 + 3];
+        return CubicCoefficients1D.solve(m0 + m1 - 2, 3 - 2 * m0 - m1, m0, 0, guessu, guessu,
+                MotionCurve.MAXFRAMEERROR / 30.0f / span, null);
+    }
+
+    private static double hermite(double p0, double p1, double m0, double m1, double u) {
+        double u2 = u * u;
+        double u3 = u2 * u;
+        return (2 * u3 - 3 * u2 + 1) * p0 + (u3 - 2 * u2 + u) * m0 + (-2 * u3 + 3 * u2) * p1 + (u3 - u2) * m1;
+    }
+
+    private static double hermiteDerivative(double p0, double p1, double m0, double m1, double u) {
+        double u2 = u * u;
+        return (6 * u2 - 6 * u) * p0 + (3 * u2 - 4 * u + 1) * m0 + (-6 * u2 + 6 * u) * p1 + (3 * u2 - 2 * u) * m1;
+    }
+}
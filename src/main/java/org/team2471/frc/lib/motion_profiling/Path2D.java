@@ -28,6 +28,9 @@ public class Path2D {
     private boolean m_mirrored = false;
 
     private transient Autonomous autonomous;
+    private transient CurveView m_easeView;  // ease as a function of path time, with speed and direction applied
+    private transient double m_easeViewSpeed;
+    private transient int m_easeViewRevision;
 
     public Path2D() {
         m_xyCurve = new Path2DCurve();
@@ -89,38 +92,38 @@ public class Path2D {
         m_easeCurve.storeValueSlopeAndMagnitude(time, value, slope, magnitude);
     }
 
-    public Vector2 getPosition(double time) {
-        if (m_easeCurve.getHeadKey() != null) {
-            if (speed > 0)
-                return getPositionAtEase(m_easeCurve.getValue(time * speed));
-            else
-                return getPositionAtEase(m_easeCurve.getValue(getDuration() - time * -speed));
-        } else {
-            if (speed > 0)
-                return getPositionAtEase(time / 5.0 * speed);  // take 5 seconds to finish path (linear motion)
+    /**
+     * The ease along the path as a function of path time, with the speed and reverse playback folded in.  It is
+     * compiled once and rebuilt only when the speed or the ease curve changes.
+     */
+    public CurveView getEaseView() {
+        if (m_easeView == null || m_easeViewSpeed != speed || m_easeViewRevision != m_easeCurve.getRevision()) {
+            double startTime = speed > 0 ? 0 : getDuration();  // negative speeds play the path from its end
+            if (m_easeCurve.getHeadKey() != null)
+                m_easeView = CurveView.of(m_easeCurve).timeWarp(speed, startTime).compile();
             else
-                return getPositionAtEase(getDuration() - time / 5.0 * -speed);
+                m_easeView = CurveView.time().scaleOffset(speed / 5.0, startTime).compile();  // take 5 seconds to finish path (linear motion)
+            m_easeViewSpeed = speed;
+            m_easeViewRevision = m_easeCurve.getRevision();
         }
+        return m_easeView;
     }
 
-    public Vector2 getTangent(double time) {
-        double flipTangent = getRobotDirection() == RobotDirection.FORWARD ? 1.0 : -1.0;
-        Vector2 rValue;
+    /**
+     * Samples the path every dt seconds of playback into a {@link Trajectory} with constant time lookups, for
+     * followers that query the path every tick.
+     */
+    public Trajectory bake(double dt) {
+        return new Trajectory(this, dt);
+    }
 
-        if (m_easeCurve.getHeadKey() != null) {
-            if (speed > 0)
-                rValue = getTangentAtEase(m_easeCurve.getValue(time * speed));
-            else
-                rValue = getTangentAtEase(m_easeCurve.getValue(getDuration() - time * -speed));
-        } else {
-            if (speed > 0)
-                rValue = getTangentAtEase(time / 5.0 * speed);  // take 5 seconds to finish path (linear motion)
-            else
-                rValue = getTangentAtEase(getDuration() - time / 5.0 * -speed);
-        }
+    public Vector2 getPosition(double time) {
+        return getPositionAtEase(getEaseView().getValue(time));
+    }
 
-        rValue = rValue.times(flipTangent);
-        return rValue;
+    public Vector2 getTangent(double time) {
+        double flipTangent = getRobotDirection() == RobotDirection.FORWARD ? 1.0 : -1.0;
+        return getTangentAtEase(getEaseView().getValue(time)).times(flipTangent);
     }
 
     public Vector2 getRobotDirection(double time) {
@@ -177,6 +180,14 @@ public class Path2D {
         return m_easeCurve;
     }
 
+    /**
+     * Replaces the ease curve with the fastest one the limits allow, see {@link Path2DCurve#generateEaseCurve}.
+     */
+    public void generateEaseCurve(double maxVelocity, double maxAcceleration, double maxCentripetalAcceleration) {
+        m_easeCurve = m_xyCurve.generateEaseCurve(maxVelocity, maxAcceleration, maxCentripetalAcceleration);
+        m_easeView = null;
+    }
+
     public MotionCurve getHeadingCurve() {
         return m_headingCurve;
     }
@@ -256,31 +267,64 @@ public class Path2D {
         return m_xyCurve.getLength();
     }
 
+    /**
+     * The sideways acceleration of crossing the whole path at a steady pace in its duration, the curvature at ease
+     * times the square of that pace.
+     */
     public double getAccelerationAtEase(double ease) {
-        double deltaEase = 1.0 / 100.0;
-        Vector2 tangent1 = getTangentAtEase(ease);
-        Vector2 tangent2 = getTangentAtEase(ease + deltaEase);
-        Vector2 delta = tangent2.minus(tangent1);
-        return delta.getLength() * Path2DPoint.STEPS / deltaEase / getDuration() / getDuration();  // this is how much it would curve over the entire path length
+        double length = m_xyCurve.getLength();
+        return Math.abs(getCurvatureAtEase(ease)) * length * length / getDuration() / getDuration();
     }
 
+    /**
+     * The change in position per unit of ease, which is the unit tangent times the length since ease is the fraction
+     * of the length travelled.
+     */
     public Vector2 getVelocityAtEase(double ease) {
-        Vector2 velocity = getTangentAtEase(ease);
-        velocity = velocity.times(Path2DPoint.STEPS);
-        return velocity;
+        return getTangentAtEase(ease).normalize().times(m_xyCurve.getLength());
     }
 
+    /**
+     * The rate of change of {@link #getPosition(double)}, with the speed applied through the ease view.  It points the
+     * way the robot travels, so unlike {@link #getTangent(double)} it is not flipped for a robot driving backward, and
+     * it reverses with a negative speed.
+     */
     public Vector2 getVelocityAtTime(double time) {
-        Vector2 tangent = getTangent(time);
-        tangent.normalize();
-        Vector2 velocity = tangent.times( m_easeCurve.getDerivative(time) * m_xyCurve.getLength());
-        return velocity;
+        MotionSample easeSample = new MotionSample();  // value and slope from one search of the ease curve
+        getEaseView().evaluate(time, easeSample);
+        Vector2 tangent = getTangentAtEase(easeSample.getValue()).normalize();
+        return tangent.times(easeSample.getDerivative() * m_xyCurve.getLength());
+    }
+
+    /**
+     * The acceleration at time by the chain rule through the ease curve: the second derivative of the distance along
+     * the tangent, plus the curvature times the speed squared toward the inside of the turn.
+     */
+    public Vector2 getAccelerationAtTime(double time) {
+        MotionSample easeSample = new MotionSample();
+        getEaseView().evaluate(time, easeSample);
+        double length = m_xyCurve.getLength();
+        double distance = easeSample.getValue() * length;
+        double speed = easeSample.getDerivative() * length;
+        Vector2 tangent = m_xyCurve.getTangentAtDistance(distance).normalize();
+        Vector2 normal = tangent.perpendicular().times(-1.0);  // counterclockwise of the tangent
+        Vector2 rValue = tangent.times(easeSample.getSecondDerivative() * length)
+                .plus(normal.times(m_xyCurve.getCurvatureAtDistance(distance) * speed * speed));
+        if (isMirrored())
+            rValue = rValue.mirrorXAxis();
+        return rValue;
     }
 
+    /**
+     * The signed curvature of the path at ease, positive where it turns counterclockwise as the ease increases.
+     */
     public double getCurvatureAtEase(double ease) {
-        double radius = 0.0;
-        Vector2 velocity = getVelocityAtEase(ease);
-        return velocity.dot(velocity) / radius;
+        double curvature = m_xyCurve.getCurvatureAtDistance(ease * m_xyCurve.getLength());
+        return isMirrored() ? -curvature : curvature;
+    }
+
+    public double getCurvature(double time) {
+        return getCurvatureAtEase(getEaseView().getValue(time));
     }
 
     public double getAbsoluteHeadingDegreesAt(double time) {
@@ -7,14 +7,17 @@ public class Path2DCurve {
     private Path2DPoint m_headPoint;
     private transient Path2DPoint m_tailPoint;
     private transient Path2DPoint m_lastAccessedPoint;
-    private transient double m_cachedLength;
+    private transient double[] m_distances;  // distance along the path to the start of each segment, then its length
+    private transient Path2DPoint[] m_segmentPoints;
     private transient double m_lengthRemaining;
+    private transient double m_lengthTolerance;
 
     public Path2DCurve() {
         m_headPoint = null;
         m_tailPoint = null;
         m_lastAccessedPoint = null;
-        m_cachedLength = -1.0;
+        m_distances = null;
+        m_lengthTolerance = Path2DPoint.DEFAULT_LENGTH_TOLERANCE;
     }
 
     private void insertPointBefore(Path2DPoint atKey, Path2DPoint newKey) {
@@ -27,7 +30,7 @@ public class Path2DCurve {
         }
 
         m_lastAccessedPoint = newKey;
-        m_cachedLength = -1.0;
+        m_distances = null;
 
         if (atKey != null) {
             newKey.insertBefore(atKey);
@@ -47,7 +50,7 @@ public class Path2DCurve {
         }
 
         m_lastAccessedPoint = newPoint;
-        m_cachedLength = -1.0;
+        m_distances = null;
 
         if (atPoint != null) {
             newPoint.insertAfter(atPoint);
@@ -85,6 +88,7 @@ public class Path2DCurve {
     }
 
     public void removePoint(Path2DPoint path2DPoint) {
+        m_distances = null;
         if (path2DPoint.getPrevPoint() != null) {
             path2DPoint.getPrevPoint().setNextPoint(path2DPoint.getNextPoint());
             path2DPoint.getPrevPoint().onPositionChanged();
@@ -122,33 +126,85 @@ public class Path2DCurve {
         return point.getTangentAtDistance(m_lengthRemaining);
     }
 
-    private Path2DPoint getPointBefore(double distance) {
-        double length = 0;
-        for (Path2DPoint point = m_headPoint; point != null && point.getNextPoint() != null; point = point.getNextPoint()) {  // should make this incremental
-            length += point.getSegmentLength();
-            if (length > distance) {
-                length -= point.getSegmentLength();
-                m_lengthRemaining = distance - length;
-                return point;
-            }
+    public double getCurvatureAtDistance(double distance) {
+        Path2DPoint point = getPointBefore(distance);
+        if (point == null) {  // distance exceeds path length, use the end of the last segment
+            if (m_tailPoint != null && m_tailPoint.getPrevPoint() != null)
+                return m_tailPoint.getPrevPoint().getCurvatureAtDistance(m_tailPoint.getPrevPoint().getSegmentLength());
+            else
+                return 0.0;
         }
-        return null;
+        return point.getCurvatureAtDistance(m_lengthRemaining);
     }
 
-    public double getLength() {
-        if (m_cachedLength > 0) {
-            return m_cachedLength;
+    private Path2DPoint getPointBefore(double distance) {
+        updateDistances();
+        int segmentCount = m_segmentPoints.length;
+        if (segmentCount == 0 || !(distance < m_distances[segmentCount]))
+            return null;
+
+        int low = 0;
+        int high = segmentCount - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (m_distances[mid] <= distance)
+                low = mid;
+            else
+                high = mid - 1;
         }
+        m_lengthRemaining = distance - m_distances[low];
+        return m_segmentPoints[low];
+    }
+
+    private void updateDistances() {
+        if (m_distances != null)
+            return;
+
+        int segmentCount = 0;
+        for (Path2DPoint point = m_headPoint; point != null && point.getNextPoint() != null; point = point.getNextPoint())
+            segmentCount++;
 
-        m_cachedLength = 0;
-        for (Path2DPoint point = m_headPoint; point != null && point.getNextPoint() != null; point = point.getNextPoint()) {
-            m_cachedLength += point.getSegmentLength();
+        m_segmentPoints = new Path2DPoint[segmentCount];
+        m_distances = new double[segmentCount + 1];
+        int segment = 0;
+        for (Path2DPoint point = m_headPoint; point != null && point.getNextPoint() != null; point = point.getNextPoint(), segment++) {
+            m_segmentPoints[segment] = point;
+            m_distances[segment + 1] = m_distances[segment] + point.getSegmentLength();
         }
-        return m_cachedLength;
+    }
+
+    public double getLength() {
+        updateDistances();
+        return m_distances[m_distances.length - 1];
     }
 
     public void onPositionChanged() {
-        m_cachedLength = -1.0;
+        m_distances = null;
+    }
+
+    /**
+     * The fastest ease curve, the fraction of the length travelled as a function of time, that starts and ends at rest
+     * and keeps the speed along the path within maxVelocity, its change within maxAcceleration and the speed squared
+     * times the curvature within maxCentripetalAcceleration, see {@link EaseCurveGenerator}.
+     */
+    public MotionCurve generateEaseCurve(double maxVelocity, double maxAcceleration, double maxCentripetalAcceleration) {
+        return EaseCurveGenerator.generate(this, maxVelocity, maxAcceleration, maxCentripetalAcceleration);
+    }
+
+    public double getLengthTolerance() {
+        return m_lengthTolerance;
+    }
+
+    /**
+     * Sets how closely each segment's length is integrated, in the units of the path.
+     */
+    public void setLengthTolerance(double lengthTolerance) {
+        if (!(lengthTolerance > 0))
+            throw new IllegalArgumentException("lengthTolerance must be positive, got " + lengthTolerance);
+        m_lengthTolerance = lengthTolerance;
+        for (Path2DPoint point = m_headPoint; point != null; point = point.getNextPoint())
+            point.setCoefficientsDirty(true);
+        m_distances = null;
     }
 
     public Path2DPoint getHeadPoint() {
@@ -2,11 +2,22 @@ package org.team2471.frc.lib.motion_profiling;
 
 import org.team2471.frc.lib.math.Vector2;
 
+import java.util.Arrays;
+
 import static org.team2471.frc.lib.motion_profiling.Path2DPoint.SlopeMethod.SLOPE_MANUAL;
 import static org.team2471.frc.lib.motion_profiling.Path2DPoint.SlopeMethod.SLOPE_SMOOTH;
 
 public class Path2DPoint {
-    public static transient final int STEPS = 600;
+    public static transient final int STEPS = 600;  // tangents at a distance are the step of a segment split this many times
+    static final double DEFAULT_LENGTH_TOLERANCE = 1e-9;
+    private static final int MAX_LENGTH_DEPTH = 20;
+    private static final int MAX_NEWTON_ITERATIONS = 20;
+    static final int CURVATURE_CHECKS = 4;
+    // 5 point Gauss-Legendre nodes and weights on [0, 1]
+    private static final double[] GAUSS_NODES = {
+            0.04691007703066800, 0.23076534494715845, 0.5, 0.76923465505284155, 0.95308992296933200};
+    private static final double[] GAUSS_WEIGHTS = {
+            0.11846344252809454, 0.23931433524968324, 0.28444444444444444, 0.23931433524968324, 0.11846344252809454};
 
     private Vector2 m_position;
     private Vector2 m_prevAngleAndMagnitude = new Vector2(0, 1.9);
@@ -22,7 +33,9 @@ public class Path2DPoint {
     private transient CubicCoefficients1D m_xCoeff;
     private transient CubicCoefficients1D m_yCoeff;
     private transient double m_segmentLength = 0;
-    private transient double partialLength = -1, prevPartialLength;
+    private transient double[] m_lengthTimes;      // where each interval the quadrature settled on starts, then 1
+    private transient double[] m_lengthDistances;  // distance along the segment to the start of each interval
+    private transient int m_lengthIntervalCount;
     private transient Path2DCurve m_path2DCurve = null;
     private transient Path2DPoint m_prevPoint = null;
 
@@ -382,18 +395,52 @@ public class Path2DPoint {
         double pointdy = m_nextPoint.getPrevTangent().getY();
         m_yCoeff = new CubicCoefficients1D(pointay, pointby, pointcy, pointdy);
 
-        // calculate segment length
-        Vector2 pos = new Vector2(0, 0);
-        m_xCoeff.initFD(STEPS);
-        m_yCoeff.initFD(STEPS);
+        // calculate segment length, keeping the intervals it was integrated over for looking up distances
+        if (m_lengthTimes == null) {
+            m_lengthTimes = new double[16];
+            m_lengthDistances = new double[16];
+        }
+        double tolerance = m_path2DCurve != null ? m_path2DCurve.getLengthTolerance() : DEFAULT_LENGTH_TOLERANCE;
+        m_lengthIntervalCount = 0;
         m_segmentLength = 0;
-        Vector2 prevPos = new Vector2(m_xCoeff.getFDValue(), m_yCoeff.getFDValue());
+        integrateLength(0, 1, integrateSpeed(0, 1), tolerance, 0);
+        addLengthInterval(1);
+    }
+
+    // adaptive gauss-legendre, halving an interval until its halves agree with the whole
+    private void integrateLength(double t0, double t1, double whole, double tolerance, int depth) {
+        double tMid = (t0 + t1) * 0.5;
+        double left = integrateSpeed(t0, tMid);
+        double right = integrateSpeed(tMid, t1);
+        if (depth >= MAX_LENGTH_DEPTH || Math.abs(left + right - whole) <= tolerance) {
+            addLengthInterval(t0);
+            m_segmentLength += left + right;
+            return;
+        }
+        integrateLength(t0, tMid, left, tolerance * 0.5, depth + 1);
+        integrateLength(tMid, t1, right, tolerance * 0.5, depth + 1);
+    }
 
-        for (int i = 0; i < STEPS; i++) {
-            pos = new Vector2(m_xCoeff.bumpFDFaster(), m_yCoeff.bumpFDFaster());
-            m_segmentLength += pos.minus(prevPos).getLength();
-            prevPos = new Vector2(pos.getX(), pos.getY());
+    private void addLengthInterval(double t) {
+        if (m_lengthIntervalCount == m_lengthTimes.length) {
+            m_lengthTimes = Arrays.copyOf(m_lengthTimes, m_lengthIntervalCount * 2);
+            m_lengthDistances = Arrays.copyOf(m_lengthDistances, m_lengthIntervalCount * 2);
         }
+        m_lengthTimes[m_lengthIntervalCount] = t;
+        m_lengthDistances[m_lengthIntervalCount] = m_segmentLength;
+        m_lengthIntervalCount++;
+    }
+
+    private double integrateSpeed(double t0, double t1) {
+        double span = t1 - t0;
+        double sum = 0;
+        for (int i = 0; i < GAUSS_NODES.length; i++)
+            sum += GAUSS_WEIGHTS[i] * getSpeed(t0 + span * GAUSS_NODES[i]);
+        return sum * span;
+    }
+
+    private double getSpeed(double t) {
+        return Math.hypot(m_xCoeff.derivative(t), m_yCoeff.derivative(t));
     }
 
     public double getSegmentLength() {
@@ -404,46 +451,110 @@ public class Path2DPoint {
     }
 
     public Vector2 getPositionAtDistance(double distance) {
+        double t = getTAtDistance(distance);
+        return new Vector2(m_xCoeff.evaluate(t), m_yCoeff.evaluate(t));
+    }
 
-        Vector2 pos = new Vector2(0, 0);
-        Vector2 prevPos = new Vector2(0, 0);
-
-        if (partialLength < 0 || partialLength > distance) {
-            m_xCoeff.initFD(STEPS);
-            m_yCoeff.initFD(STEPS);
-            partialLength = 0;
-        }
-
-        while (partialLength <= distance) {
-            pos = new Vector2(m_xCoeff.bumpFD(), m_yCoeff.bumpFD());
-            prevPos = new Vector2(m_xCoeff.getFdPrevValue(), m_yCoeff.getFdPrevValue());
-            prevPartialLength = partialLength;
-            partialLength += pos.minus(prevPos).getLength();
+    public Vector2 getTangentAtDistance(double distance) {
+        double t = getTAtDistance(distance);
+        return new Vector2(m_xCoeff.derivative(t) / STEPS, m_yCoeff.derivative(t) / STEPS);
+    }
+
+    /**
+     * The signed curvature of the segment at distance, positive where it turns counterclockwise.
+     */
+    public double getCurvatureAtDistance(double distance) {
+        return getCurvature(getTAtDistance(distance));
+    }
+
+    /**
+     * The largest magnitude of the curvature between two distances along the segment.  It is checked at the ends, at
+     * CURVATURE_CHECKS even steps of the parameter and wherever the parametric speed bottoms out between them, since
+     * sharp turns peak there far too narrowly for even steps to find.
+     */
+    double getMaxAbsCurvature(double distance0, double distance1) {
+        double t0 = getTAtDistance(distance0);
+        double t1 = getTAtDistance(distance1);
+        double step = (t1 - t0) / CURVATURE_CHECKS;
+        double max = Math.abs(getCurvature(t0));
+        double prevT = t0;
+        double prevSpeedChange = getSpeedChange(t0);
+        for (int i = 1; i <= CURVATURE_CHECKS; i++) {
+            double t = i == CURVATURE_CHECKS ? t1 : t0 + step * i;
+            double speedChange = getSpeedChange(t);
+            max = Math.max(max, Math.abs(getCurvature(t)));
+            if (prevSpeedChange < 0 && speedChange > 0) {  // a speed minimum, bisected down to the parameter's precision
+                double low = prevT;
+                double high = t;
+                for (int j = 0; j < 52; j++) {
+                    double mid = (low + high) * 0.5;
+                    if (getSpeedChange(mid) < 0)
+                        low = mid;
+                    else
+                        high = mid;
+                }
+                max = Math.max(max, Math.max(Math.abs(getCurvature(low)), Math.abs(getCurvature(high))));
+            }
+            prevT = t;
+            prevSpeedChange = speedChange;
         }
+        return max;
+    }
 
-        double intoSegment = (distance - prevPartialLength) / (partialLength - prevPartialLength);  // linearly interpolate t based on distance of the surrounding steps
-
-        return prevPos.times(1.0f - intoSegment).plus(pos.times(intoSegment));
+    private double getCurvature(double t) {
+        double dx = m_xCoeff.derivative(t);
+        double dy = m_yCoeff.derivative(t);
+        double speed = Math.hypot(dx, dy);
+        if (speed == 0)
+            return 0;
+        return (dx * m_yCoeff.secondDerivative(t) - dy * m_xCoeff.secondDerivative(t)) / (speed * speed * speed);
     }
 
-    public Vector2 getTangentAtDistance(double distance) {
-        Vector2 pos = new Vector2(0, 0);
-        Vector2 prevPos = new Vector2(0, 0);
+    // half the derivative of the squared parametric speed, negative while the segment slows down
+    private double getSpeedChange(double t) {
+        return m_xCoeff.derivative(t) * m_xCoeff.secondDerivative(t) + m_yCoeff.derivative(t) * m_yCoeff.secondDerivative(t);
+    }
 
-        if (partialLength < 0 || partialLength > distance) {
-            m_xCoeff.initFD(STEPS);
-            m_yCoeff.initFD(STEPS);
-            partialLength = 0;
+    // finds the interval the distance falls in, then newton steps on the length integral, whose derivative is the
+    // speed, falling back to bisection of the interval when a step leaves it
+    private double getTAtDistance(double distance) {
+        if (areCoefficientsDirty())
+            calculateCoefficientsAndLength();
+        if (!(distance > 0))
+            return 0;
+        if (distance >= m_segmentLength)
+            return 1;
+
+        int low = 0;
+        int high = m_lengthIntervalCount - 2;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (m_lengthDistances[mid] <= distance)
+                low = mid;
+            else
+                high = mid - 1;
         }
 
-        while (partialLength <= distance) {
-            pos = new Vector2(m_xCoeff.bumpFD(), m_yCoeff.bumpFD());
-            prevPos = new Vector2(m_xCoeff.getFdPrevValue(), m_yCoeff.getFdPrevValue());
-            prevPartialLength = partialLength;
-            partialLength += pos.minus(prevPos).getLength();
+        double t0 = m_lengthTimes[low];
+        double lengthToT0 = m_lengthDistances[low];
+        double lower = t0;
+        double upper = m_lengthTimes[low + 1];
+        double intervalLength = m_lengthDistances[low + 1] - lengthToT0;
+        double t = intervalLength > 0 ? t0 + (upper - t0) * (distance - lengthToT0) / intervalLength : t0;
+        double tolerance = m_path2DCurve != null ? m_path2DCurve.getLengthTolerance() : DEFAULT_LENGTH_TOLERANCE;
+        for (int i = 0; i < MAX_NEWTON_ITERATIONS; i++) {
+            double error = lengthToT0 + integrateSpeed(t0, t) - distance;
+            if (Math.abs(error) <= tolerance)
+                break;
+            if (error > 0)
+                upper = t;
+            else
+                lower = t;
+            double speed = getSpeed(t);
+            double next = speed > 0 ? t - error / speed : lower - 1;
+            t = next > lower && next < upper ? next : (lower + upper) * 0.5;
         }
-
-        return pos.minus(prevPos);
+        return t;
     }
 
     public String toString() {
@@ -0,0 +1,50 @@
+package org.team2471.frc.lib.motion_profiling;
+
+import java.util.Arrays;
+
+// a segment tree answering min or max queries over a range of per segment values in O(log n).  The leaves are
+// padded to a power of two so every node covers a contiguous run of leaves and the tree can also be walked top down,
+// node 1 being the root and node i having children 2i and 2i + 1.
+final class SegmentTree {
+    private final int m_size;
+    private final double[] m_nodes;
+    private final boolean m_max;
+
+    SegmentTree(double[] leaves, boolean max) {
+        m_size = Math.max(Integer.highestOneBit(Math.max(leaves.length * 2 - 1, 1)), 1);
+        m_nodes = new double[m_size * 2];
+        m_max = max;
+        Arrays.fill(m_nodes, m_size, m_size * 2, max ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY);
+        System.arraycopy(leaves, 0, m_nodes, m_size, leaves.length);
+        for (int i = m_size - 1; i > 0; i--)
+            m_nodes[i] = combine(m_nodes[i * 2], m_nodes[i * 2 + 1]);
+    }
+
+    private double combine(double a, double b) {
+        return m_max ? Math.max(a, b) : Math.min(a, b);
+    }
+
+    // combines leaves from through to - 1, an empty range gives the identity
+    double query(int from, int to) {
+        double result = m_max ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+        for (from += m_size, to += m_size; from < to; from >>= 1, to >>= 1) {
+            if ((from & 1) != 0)
+                result = combine(result, m_nodes[from++]);
+            if ((to & 1) != 0)
+                result = combine(result, m_nodes[--to]);
+        }
+        return result;
+    }
+
+    double getAll() {
+        return m_nodes[1];
+    }
+
+    int getLeafCount() {
+        return m_size;
+    }
+
+    double getNode(int node) {
+        return m_nodes[node];
+    }
+}
@@ -0,0 +1,182 @@
+package org.team2471.frc.lib.motion_profiling;
+
+import org.team2471.frc.lib.math.Vector2;
+
+/**
+ * A {@link Path2D} sampled every dt seconds of playback into columns of doubles, for followers that look the path up
+ * every tick.
+ * <p>
+ * Each column holds one quantity at every sample and lookups interpolate linearly between the two samples around a
+ * time, found by dividing by dt, so a tick costs a few multiplies with no ease curve evaluation, distance search or
+ * allocation.  Times run from 0 to the duration of the path with its speed applied, and positions, tangents,
+ * headings and curvatures are mirrored as the path was when it was baked.  Velocity, acceleration and distance are
+ * along the path, and are negative or decreasing when a negative speed plays it backwards.
+ * <p>
+ * A trajectory is a snapshot, later edits to the path need a new bake.
+ */
+public final class Trajectory {
+    private final String m_name;
+    private final Path2D.RobotDirection m_robotDirection;
+    private final boolean m_mirrored;
+    private final double m_speedSign;
+    private final double m_dt;
+    private final double m_invDt;
+    private final double m_duration;
+    private final double[] m_times;
+    private final double[] m_xs;
+    private final double[] m_ys;
+    private final double[] m_tangentXs;
+    private final double[] m_tangentYs;
+    private final double[] m_headings;       // absolute heading in degrees
+    private final double[] m_velocities;     // along the path
+    private final double[] m_accelerations;  // along the path
+    private final double[] m_curvatures;     // signed, positive turning counterclockwise in the direction of travel
+    private final double[] m_distances;      // along the path from its head
+
+    Trajectory(Path2D path, double dt) {
+        if (!(dt > 0))
+            throw new IllegalArgumentException("dt must be positive, got " + dt);
+
+        m_name = path.getName();
+        m_robotDirection = path.getRobotDirection();
+        m_mirrored = path.isMirrored();
+        m_speedSign = Math.copySign(1.0, path.getSpeed());
+        m_dt = dt;
+        m_invDt = 1.0 / dt;
+        m_duration = path.getDurationWithSpeed();
+
+        int sampleCount = Math.max((int) Math.ceil(m_duration / dt - 1e-9), 0) + 1;
+        m_times = new double[sampleCount];
+        m_xs = new double[sampleCount];
+        m_ys = new double[sampleCount];
+        m_tangentXs = new double[sampleCount];
+        m_tangentYs = new double[sampleCount];
+        m_headings = new double[sampleCount];
+        m_velocities = new double[sampleCount];
+        m_accelerations = new double[sampleCount];
+        m_curvatures = new double[sampleCount];
+        m_distances = new double[sampleCount];
+
+        Path2DCurve xyCurve = path.getXYCurve();
+        double length = xyCurve.getLength();
+        double flipTangent = m_robotDirection == Path2D.RobotDirection.FORWARD ? 1.0 : -1.0;
+        double flipCurvature = (m_mirrored ? -1.0 : 1.0) * m_speedSign;
+        CurveView easeView = path.getEaseView();
+        MotionSample easeSample = new MotionSample();
+        for (int i = 0; i < sampleCount; i++) {
+            double time = i * dt;
+            easeView.evaluate(time, easeSample);
+            double distance = easeSample.getValue() * length;
+            Vector2 position = xyCurve.getPositionAtDistance(distance);
+            Vector2 tangent = xyCurve.getTangentAtDistance(distance);
+            double mirror = m_mirrored ? -1.0 : 1.0;
+
+            m_times[i] = time;
+            m_xs[i] = position.getX() * mirror;
+            m_ys[i] = position.getY();
+            double tangentLength = Math.hypot(tangent.getX(), tangent.getY());
+            double tangentScale = tangentLength > 0 ? flipTangent / tangentLength : 0;
+            m_tangentXs[i] = tangent.getX() * mirror * tangentScale;
+            m_tangentYs[i] = tangent.getY() * tangentScale;
+            m_headings[i] = path.getAbsoluteHeadingDegreesAt(time);
+            m_velocities[i] = easeSample.getDerivative() * length;
+            m_accelerations[i] = easeSample.getSecondDerivative() * length;
+            m_curvatures[i] = xyCurve.getCurvatureAtDistance(distance) * flipCurvature;
+            m_distances[i] = distance;
+        }
+    }
+
+    public String getName() {
+        return m_name;
+    }
+
+    public Path2D.RobotDirection getRobotDirection() {
+        return m_robotDirection;
+    }
+
+    public boolean isMirrored() {
+        return m_mirrored;
+    }
+
+    /**
+     * The playback time of the path with its speed applied, as {@link Path2D#getDurationWithSpeed()}.
+     */
+    public double getDuration() {
+        return m_duration;
+    }
+
+    public double getDt() {
+        return m_dt;
+    }
+
+    public int getSampleCount() {
+        return m_times.length;
+    }
+
+    public double getTime(int index) {
+        return m_times[index];
+    }
+
+    public double getX(double time) {
+        return interpolate(m_xs, time);
+    }
+
+    public double getY(double time) {
+        return interpolate(m_ys, time);
+    }
+
+    public Vector2 getPosition(double time) {
+        return new Vector2(getX(time), getY(time));
+    }
+
+    /**
+     * The direction the robot faces along the path, as {@link Path2D#getTangent(double)} but normalized.  It is unit
+     * length at the samples and interpolated between them, so only its direction should be relied on.
+     */
+    public Vector2 getTangent(double time) {
+        return new Vector2(interpolate(m_tangentXs, time), interpolate(m_tangentYs, time));
+    }
+
+    /**
+     * The position offset sideways from the path, as {@link Path2D#getSidePosition(double, double)}.
+     */
+    public Vector2 getSidePosition(double time, double xOffset) {
+        double tangentX = interpolate(m_tangentXs, time);
+        double tangentY = interpolate(m_tangentYs, time);
+        double scale = xOffset * m_speedSign / Math.hypot(tangentX, tangentY);
+        return new Vector2(getX(time) + tangentY * scale, getY(time) - tangentX * scale);
+    }
+
+    public double getHeadingDegrees(double time) {
+        return interpolate(m_headings, time);
+    }
+
+    public double getVelocity(double time) {
+        return interpolate(m_velocities, time);
+    }
+
+    public double getAcceleration(double time) {
+        return interpolate(m_accelerations, time);
+    }
+
+    public double getCurvature(double time) {
+        return interpolate(m_curvatures, time);
+    }
+
+    public double getDistance(double time) {
+        return interpolate(m_distances, time);
+    }
+
+    private double interpolate(double[] column, double time) {
+        double position = time * m_invDt;
+        if (!(position > 0))
+            return column[0];
+        int last = column.length - 1;
+        if (position >= last)
+            return column[last];
+
+        int index = (int) position;
+        double fraction = position - index;
+        return column[index] + (column[index + 1] - column[index]) * fraction;
+    }
+}
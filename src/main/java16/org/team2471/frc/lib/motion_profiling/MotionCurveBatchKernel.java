@@ -0,0 +1,46 @@
+package org.team2471.frc.lib.motion_profiling;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Evaluates the per-channel cubics of a {@link MotionCurveBatch} at their fractions, as many channels at once as the
+ * widest vector of doubles the processor has.
+ * <p>
+ * The Vector API is still an incubator module, so it is only used when the application is started with
+ * --add-modules jdk.incubator.vector.  Otherwise, and for the channels left over after the last full vector, this
+ * runs the same scalar loop as the Java 11 version, and both give the same values to the bit.
+ */
+final class MotionCurveBatchKernel {
+    private static final boolean VECTORIZED = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+
+    private MotionCurveBatchKernel() {
+    }
+
+    static void evaluate(double[] as, double[] bs, double[] cs, double[] ds, double[] fractions, double[] values, int count) {
+        int i = VECTORIZED ? Lanes.evaluate(as, bs, cs, ds, fractions, values, count) : 0;
+        for (; i < count; i++) {
+            double u = fractions[i];
+            values[i] = ((as[i] * u + bs[i]) * u + cs[i]) * u + ds[i];
+        }
+    }
+
+    // kept apart so the vector classes are only loaded when the module is there
+    private static final class Lanes {
+        private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+        // returns how many channels were evaluated
+        static int evaluate(double[] as, double[] bs, double[] cs, double[] ds, double[] fractions, double[] values, int count) {
+            int bound = SPECIES.loopBound(count);
+            for (int i = 0; i < bound; i += SPECIES.length()) {
+                DoubleVector u = DoubleVector.fromArray(SPECIES, fractions, i);
+                DoubleVector.fromArray(SPECIES, as, i).mul(u)
+                        .add(DoubleVector.fromArray(SPECIES, bs, i)).mul(u)
+                        .add(DoubleVector.fromArray(SPECIES, cs, i)).mul(u)
+                        .add(DoubleVector.fromArray(SPECIES, ds, i))
+                        .intoArray(values, i);
+            }
+            return bound;
+        }
+    }
+}
@@ -4,9 +4,11 @@ import edu.wpi.first.wpilibj.Timer
 import org.team2471.frc.lib.coroutines.periodic
 import org.team2471.frc.lib.framework.Subsystem
 import org.team2471.frc.lib.framework.use
+import org.team2471.frc.lib.math.Vector2
 import org.team2471.frc.lib.math.deadband
 import org.team2471.frc.lib.math.windRelativeAngles
 import org.team2471.frc.lib.motion_profiling.Path2D
+import org.team2471.frc.lib.motion_profiling.Trajectory
 import org.team2471.frc.lib.motion_profiling.following.ArcadeParameters
 import org.team2471.frc.lib.units.degrees
 
@@ -40,14 +42,40 @@ interface ArcadeDrive {
 suspend fun <T> T.driveAlongPath(
         path: Path2D,
         extraTime: Double = 0.0
+) where T : ArcadeDrive, T : Subsystem = followPath(
+        path.name, path.durationWithSpeed, path.robotDirection, path.isMirrored, path::getTangent,
+        ArcadePath(path, parameters.trackWidth * parameters.scrubFactor), extraTime
+)
+
+/**
+ * Follows a [trajectory] baked from a [Path2D] using the robot's [ArcadeParameters], looking the path up from its
+ * samples instead of evaluating it every tick.
+ *
+ * @param trajectory the [Trajectory] to follow, see [Path2D.bake]
+ * @param extraTime the amount of extra time to wait for minor corrections to the path after its completion
+ */
+suspend fun <T> T.driveAlongPath(
+        trajectory: Trajectory,
+        extraTime: Double = 0.0
+) where T : ArcadeDrive, T : Subsystem = followPath(
+        trajectory.name, trajectory.duration, trajectory.robotDirection, trajectory.isMirrored, trajectory::getTangent,
+        ArcadePath(trajectory, parameters.trackWidth * parameters.scrubFactor), extraTime
+)
+
+private suspend fun <T> T.followPath(
+        name: String?,
+        duration: Double,
+        robotDirection: Path2D.RobotDirection,
+        mirrored: Boolean,
+        tangent: (Double) -> Vector2,
+        arcadePath: ArcadePath,
+        extraTime: Double
 ) where T : ArcadeDrive, T : Subsystem = use(this, name = "Drive Along Path") {
-    println("Driving along path ${path.name}, duration: ${path.durationWithSpeed}, " +
-            "travel direction: ${path.robotDirection}, mirrored: ${path.isMirrored}")
+    println("Driving along path $name, duration: $duration, " +
+            "travel direction: $robotDirection, mirrored: $mirrored")
 
     startFollowing()
 
-    val arcadePath = ArcadePath(path, parameters.trackWidth * parameters.scrubFactor)
-
     var prevLeftDistance = 0.0
     var prevRightDistance = 0.0
     var prevTime = 0.0
@@ -62,7 +90,7 @@ suspend fun <T> T.driveAlongPath(
 
             // apply gyro corrections to the distances
             val gyroAngle = heading
-            val pathAngle = Math.toDegrees(path.getTangent(t).angle)
+            val pathAngle = Math.toDegrees(tangent(t).angle)
             val angleError = pathAngle - windRelativeAngles(pathAngle, gyroAngle)
 
             angleErrorAccum = angleErrorAccum * parameters.headingCorrectionIDecay + angleError
@@ -93,7 +121,7 @@ suspend fun <T> T.driveAlongPath(
 
             driveClosedLoop(leftDistance, leftFeedForward, rightDistance, rightFeedForward)
 
-            if (t >= path.durationWithSpeed + extraTime) stop()
+            if (t >= duration + extraTime) stop()
 
             prevTime = t
             prevLeftDistance = leftDistance
@@ -2,8 +2,20 @@ package org.team2471.frc.lib.motion.following
 
 import org.team2471.frc.lib.math.Vector2
 import org.team2471.frc.lib.motion_profiling.Path2D
+import org.team2471.frc.lib.motion_profiling.Trajectory
+
+class ArcadePath private constructor(
+        private val centerPosition: (Double) -> Vector2,
+        private val sidePosition: (Double, Double) -> Vector2,
+        private val robotDirection: () -> Path2D.RobotDirection,
+        private val finalTrackWidth: Double
+) {
+    constructor(path: Path2D, finalTrackWidth: Double) :
+            this(path::getPosition, path::getSidePosition, path::getRobotDirection, finalTrackWidth)
+
+    constructor(trajectory: Trajectory, finalTrackWidth: Double) :
+            this(trajectory::getPosition, trajectory::getSidePosition, trajectory::getRobotDirection, finalTrackWidth)
 
-class ArcadePath(private val path: Path2D, private val finalTrackWidth: Double) {
     private var prevCenterPositionForLeft: Vector2? = null
     private var prevCenterPositionForRight: Vector2? = null
     private var prevLeftPosition: Vector2? = null
@@ -21,21 +33,21 @@ class ArcadePath(private val path: Path2D, private val finalTrackWidth: Double)
     }
 
     fun getLeftPosition(time: Double): Vector2 {
-        return path.getSidePosition(time, -finalTrackWidth / 2.0)
+        return sidePosition(time, -finalTrackWidth / 2.0)
     }
 
     fun getRightPosition(time: Double): Vector2 {
-        return path.getSidePosition(time, finalTrackWidth / 2.0)
+        return sidePosition(time, finalTrackWidth / 2.0)
     }
 
     fun getLeftPositionDelta(time: Double): Double {
         if (prevLeftPosition == null) {
-            prevCenterPositionForLeft = path.getPosition(time)
+            prevCenterPositionForLeft = centerPosition(time)
             prevLeftPosition = getLeftPosition(time)
             return 0.0
         }
 
-        val centerPosition = path.getPosition(time)
+        val centerPosition = centerPosition(time)
         val leftPosition = getLeftPosition(time)
         val deltaCenter = centerPosition - prevCenterPositionForLeft!!
         val deltaLeft = leftPosition - prevLeftPosition!!
@@ -47,7 +59,7 @@ class ArcadePath(private val path: Path2D, private val finalTrackWidth: Double)
         } else {
             -deltaLeft.length
         }
-        return if (path.robotDirection == Path2D.RobotDirection.FORWARD)
+        return if (robotDirection() == Path2D.RobotDirection.FORWARD)
             result
         else
             -result
@@ -55,12 +67,12 @@ class ArcadePath(private val path: Path2D, private val finalTrackWidth: Double)
 
     fun getRightPositionDelta(time: Double): Double {
         if (prevRightPosition == null) {
-            prevCenterPositionForRight = path.getPosition(time)
+            prevCenterPositionForRight = centerPosition(time)
             prevRightPosition = getRightPosition(time)
             return 0.0
         }
 
-        val centerPosition = path.getPosition(time)
+        val centerPosition = centerPosition(time)
         val rightPosition = getRightPosition(time)
         val deltaCenter = centerPosition - prevCenterPositionForRight!!
         val deltaRight = rightPosition - prevRightPosition!!
@@ -72,7 +84,7 @@ class ArcadePath(private val path: Path2D, private val finalTrackWidth: Double)
         } else {
             -deltaRight.length
         }
-        return if (path.robotDirection == Path2D.RobotDirection.FORWARD)
+        return if (robotDirection() == Path2D.RobotDirection.FORWARD)
             result
         else
             -result
@@ -11,6 +11,7 @@ import org.team2471.frc.lib.math.round
 import org.team2471.frc.lib.motion.following.SwerveDrive.Companion.prevTranslationInput
 import org.team2471.frc.lib.motion.following.SwerveDrive.Companion.prevTurn
 import org.team2471.frc.lib.motion_profiling.Path2D
+import org.team2471.frc.lib.motion_profiling.Trajectory
 import org.team2471.frc.lib.motion_profiling.following.SwerveParameters
 import org.team2471.frc.lib.units.*
 import kotlin.math.absoluteValue
@@ -225,18 +226,47 @@ suspend fun SwerveDrive.driveAlongPath(
     path: Path2D,
     resetOdometry: Boolean = false,
     extraTime: Double = 0.0
+) = followPath(
+    "${path.name}, duration: ${path.durationWithSpeed}, travel direction: ${path.robotDirection}, mirrored: ${path.isMirrored}",
+    path.durationWithSpeed, path::getPosition, path::getTangent, path::getAbsoluteHeadingDegreesAt,
+    path.headingCurve.getValue(0.0), resetOdometry, extraTime
+)
+
+/**
+ * Follows a [trajectory] baked from a [Path2D], looking the path up from its samples instead of evaluating it every
+ * tick.  On a reset the robot starts at the trajectory's absolute heading, which includes its mirroring.
+ */
+suspend fun SwerveDrive.driveAlongPath(
+    trajectory: Trajectory,
+    resetOdometry: Boolean = false,
+    extraTime: Double = 0.0
+) = followPath(
+    "${trajectory.name}, duration: ${trajectory.duration}, travel direction: ${trajectory.robotDirection}, mirrored: ${trajectory.isMirrored}",
+    trajectory.duration, trajectory::getPosition, trajectory::getTangent, trajectory::getHeadingDegrees,
+    trajectory.getHeadingDegrees(0.0), resetOdometry, extraTime
+)
+
+private suspend fun SwerveDrive.followPath(
+    description: String,
+    duration: Double,
+    pathPositionAt: (Double) -> Vector2,
+    pathTangentAt: (Double) -> Vector2,
+    pathHeadingAt: (Double) -> Double,
+    startHeading: Double,
+    resetOdometry: Boolean,
+    extraTime: Double
 ) {
-    println("Driving along path ${path.name}, duration: ${path.durationWithSpeed}, travel direction: ${path.robotDirection}, mirrored: ${path.isMirrored}")
+    println("Driving along path $description")
 
     if (resetOdometry) {
         println("Position = $position Heading = $heading")
         resetOdometry()
 
         // set to the numbers required for the start of the path
-        position = path.getPosition(0.0)
-        heading = path.headingCurve.getValue(0.0).degrees
+        position = pathPositionAt(0.0)
+        heading = startHeading.degrees
         if(parameters.alignRobotToPath) {
-            heading += path.getTangent(0.0).angle.degrees
+            heading += pathTangentAt(0.0).angle.degrees
         }
         println("After Reset Position = $position Heading = $heading")
     }
@@ -244,8 +274,8 @@ suspend fun SwerveDrive.driveAlongPath(
 
     val timer = Timer()
     timer.start()
-    prevPathPosition = path.getPosition(0.0)
-    prevPathHeading = path.getAbsoluteHeadingDegreesAt(0.0).degrees
+    prevPathPosition = pathPositionAt(0.0)
+    prevPathHeading = pathHeadingAt(0.0).degrees
     var prevPositionError = Vector2(0.0, 0.0)
     var prevHeadingError = 0.0.degrees
     periodic {
@@ -253,7 +283,7 @@ suspend fun SwerveDrive.driveAlongPath(
         val dt = t - prevTime
 
         // position error
-        val pathPosition = path.getPosition(t)
+        val pathPosition = pathPositionAt(t)
         val positionError = pathPosition - position
         //println("time=$t   pathPosition=$pathPosition position=$position positionError=$positionError")
 
@@ -270,7 +300,7 @@ suspend fun SwerveDrive.driveAlongPath(
 
         // heading error
         val robotHeading = heading
-        val pathHeading = path.getAbsoluteHeadingDegreesAt(t).degrees
+        val pathHeading = pathHeadingAt(t).degrees
         val headingError = (pathHeading - robotHeading).wrap()
         //println("Heading Error: $headingError. Hi. %%%%%%%%%%%%%%%%%%%%%%%%%%")
 
@@ -290,7 +320,7 @@ suspend fun SwerveDrive.driveAlongPath(
         drive(translationControlField, turnControl, true)
 
         // are we done yet?
-        if (t >= path.durationWithSpeed + extraTime)
+        if (t >= duration + extraTime)
             stop()
 
         prevTime = t
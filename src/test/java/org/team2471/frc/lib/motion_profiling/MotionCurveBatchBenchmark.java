@@ -0,0 +1,152 @@
+package org.team2471.frc.lib.motion_profiling;
+
+import java.util.Random;
+
+/**
+ * Times {@link MotionCurveBatch#getValues} against calling getValue on every curve, the way
+ * {@link MotionProfileAnimation#play(double)} used to.  Run it with gradle batchBenchmark, and add -Pjdk16.home to run
+ * it on that JDK with the Vector API kernel.
+ * <p>
+ * Each case samples 32 curves of 20 keys at every 20 ms frame of their length, once with time running forward as an
+ * animation plays and once at shuffled times as a scrubbing visualizer would.  The smooth curves mix in stepped and
+ * linear segments, the weighted ones have tangent magnitudes set so their x cubics must be inverted.  Every case also
+ * checks that the batch agrees with the compiled curves.
+ */
+public final class MotionCurveBatchBenchmark {
+    private static final int CHANNELS = 32;
+    private static final int KEYS = 20;
+    private static final double FRAME = 0.02;
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int ROUNDS = 5;
+    private static final int PASSES = 100;  // over the frames in each round
+
+    private static double s_sink;  // keeps the results alive
+
+    private MotionCurveBatchBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        System.out.println("java " + System.getProperty("java.version") + ", Vector API module "
+                + (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent() ? "loaded" : "not loaded"));
+        run("smooth", createCurves(false));
+        run("weighted", createCurves(true));
+    }
+
+    private static MotionCurve[] createCurves(boolean weighted) {
+        Random random = new Random(2471);
+        MotionCurve[] curves = new MotionCurve[CHANNELS];
+        for (int channel = 0; channel < CHANNELS; channel++) {
+            MotionCurve curve = new MotionCurve();
+            double time = 0;
+            for (int key = 0; key < KEYS; key++) {
+                curve.storeValue(time, random.nextDouble() * 10);
+                time += 0.2 + random.nextDouble();
+            }
+
+            int index = 0;
+            for (MotionKey key = curve.getHeadKey(); key != null; key = key.getNextKey(), index++) {
+                if (weighted)
+                    key.setMagnitude(0.5 + random.nextDouble());
+                else if (index % 5 == 1)
+                    key.setNextSlopeMethod(MotionKey.SlopeMethod.SLOPE_STEPPED);
+                else if (index % 7 == 2 && key.getNextKey() != null) {
+                    key.setNextSlopeMethod(MotionKey.SlopeMethod.SLOPE_LINEAR);
+                    key.getNextKey().setPrevSlopeMethod(MotionKey.SlopeMethod.SLOPE_LINEAR);
+                }
+            }
+            curves[channel] = curve;
+        }
+        return curves;
+    }
+
+    private static void run(String name, MotionCurve[] curves) {
+        double length = 0;
+        for (MotionCurve curve : curves)
+            length = Math.max(length, curve.getLength());
+        int frameCount = (int) (length / FRAME);
+        double[] forward = new double[frameCount];
+        for (int frame = 0; frame < frameCount; frame++)
+            forward[frame] = frame * FRAME;
+        double[] shuffled = forward.clone();
+        Random random = new Random(16);
+        for (int i = frameCount - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            double swap = shuffled[i];
+            shuffled[i] = shuffled[j];
+            shuffled[j] = swap;
+        }
+
+        CompiledMotionCurve[] compiledCurves = new CompiledMotionCurve[curves.length];
+        for (int channel = 0; channel < curves.length; channel++)
+            compiledCurves[channel] = curves[channel].compile();
+        MotionCurveBatch batch = new MotionCurveBatch(curves);
+
+        double[] values = new double[curves.length];
+        double maxDifference = 0;
+        for (double time : shuffled) {
+            batch.getValues(time, values);
+            for (int channel = 0; channel < curves.length; channel++)
+                maxDifference = Math.max(maxDifference, Math.abs(values[channel] - compiledCurves[channel].getValue(time)));
+        }
+        System.out.printf("%s curves, batch differs from the compiled curves by at most %.1e%n", name, maxDifference);
+
+        for (double[] times : new double[][]{forward, shuffled}) {
+            for (int round = 0; round < WARMUP_ROUNDS; round++) {
+                timeCurves(curves, times);
+                timeCompiledCurves(compiledCurves, times);
+                timeBatch(batch, times, values);
+            }
+            double curveTime = Double.MAX_VALUE;
+            double compiledTime = Double.MAX_VALUE;
+            double batchTime = Double.MAX_VALUE;
+            for (int round = 0; round < ROUNDS; round++) {
+                curveTime = Math.min(curveTime, timeCurves(curves, times));
+                compiledTime = Math.min(compiledTime, timeCompiledCurves(compiledCurves, times));
+                batchTime = Math.min(batchTime, timeBatch(batch, times, values));
+            }
+            System.out.printf("  %-9s MotionCurve.getValue %6.0f ns, CompiledMotionCurve.getValue %6.0f ns, "
+                            + "MotionCurveBatch.getValues %6.0f ns per frame, %.1fx%n", times == forward ? "forward" : "shuffled",
+                    curveTime, compiledTime, batchTime, curveTime / batchTime);
+        }
+    }
+
+    // each returns the best nanoseconds per frame
+    private static double timeCurves(MotionCurve[] curves, double[] times) {
+        long start = System.nanoTime();
+        double sum = 0;
+        for (int pass = 0; pass < PASSES; pass++) {
+            for (double time : times) {
+                for (MotionCurve curve : curves)
+                    sum += curve.getValue(time);
+            }
+        }
+        s_sink += sum;
+        return (System.nanoTime() - start) / ((double) PASSES * times.length);
+    }
+
+    private static double timeCompiledCurves(CompiledMotionCurve[] curves, double[] times) {
+        long start = System.nanoTime();
+        double sum = 0;
+        for (int pass = 0; pass < PASSES; pass++) {
+            for (double time : times) {
+                for (CompiledMotionCurve curve : curves)
+                    sum += curve.getValue(time);
+            }
+        }
+        s_sink += sum;
+        return (System.nanoTime() - start) / ((double) PASSES * times.length);
+    }
+
+    private static double timeBatch(MotionCurveBatch batch, double[] times, double[] values) {
+        long start = System.nanoTime();
+        double sum = 0;
+        for (int pass = 0; pass < PASSES; pass++) {
+            for (double time : times) {
+                batch.getValues(time, values);
+                sum += values[0];
+            }
+        }
+        s_sink += sum;
+        return (System.nanoTime() - start) / ((double) PASSES * times.length);
+    }
+}